@@ -3,9 +3,16 @@ package fem;
 import fem.mesh.Elem;
 import fem.mesh.IMesh;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.PrintStream;
+import java.nio.file.Paths;
 import java.util.Map;
 import sm.CRS;
+import sm.CRSFile;
+import sm.CRSPattern;
+import sm.RCM;
+import sm.SparseMatrix;
+import sm.SymmetricCRS;
 import sm.solvers.*;
 
 /**
@@ -20,17 +27,48 @@ public class FEM {
     private double[] srcs;
     private double[] fld;
     private boolean symmetricMatrix= true;
+    private boolean symmetricStorage = false;
+    private boolean reordering = false;
 
     private int[] bndNodes;
     private double[] bndValues;
 
     private CRS H;
+    private SymmetricCRS HS;    // used instead of H when symmetricStorage is set
     private double[] rhsv;
+    // positions of the element matrices in H (or HS): entry (i,j) of element e goes to scatter[scatterStart[e] + i*n + j], -1 = not stored
+    private int[] scatter;
+    private int[] scatterStart;
+    // RCM numbering of the equations: perm[equation] = vertex, inv[vertex] = equation (null = vertex numbering)
+    private int[] perm;
+    private int[] inv;
+    // direct solver keeping the factor of the matrix between solves (see solveDirect)
+    private DirectSolver direct;
+    private boolean factored;
     
         public FEM(IMesh mesh, Map<Integer,Double[]> params, int[] bndNodes, double[] bndValues) {
         this.mesh = mesh;
         this.bndNodes = bndNodes;
         this.bndValues = bndValues;
+        initParameters(params);
+    }
+
+    public FEM(IMesh mesh, double[] mats, double[] srcs, int[] bndNodes, double[] bndValues) {
+        this.mesh = mesh;
+        this.mats = mats;
+        this.srcs = srcs;
+        this.bndNodes = bndNodes;
+        this.bndValues = bndValues;
+    }
+    
+    /**
+     * Sets materials and sources: params.get(subdomain) = {material, source}
+     */
+    public void setParameters(Map<Integer,Double[]> params) {
+        initParameters(params);
+    }
+
+    private void initParameters(Map<Integer,Double[]> params) {
         int maxSubDomNo = -1;
         for( Integer k : params.keySet() )
             if( k > maxSubDomNo )
@@ -44,20 +82,74 @@ public class FEM {
         }
     }
 
-    public FEM(IMesh mesh, double[] mats, double[] srcs, int[] bndNodes, double[] bndValues) {
-        this.mesh = mesh;
-        this.mats = mats;
-        this.srcs = srcs;
-        this.bndNodes = bndNodes;
-        this.bndValues = bndValues;
-    }
-    
     public void buildSymmetricMatrix( boolean flag ) {
         symmetricMatrix = flag;
+        factored = false;
+    }
+
+    /**
+     * Assemble into SymmetricCRS (upper triangle only) instead of CRS,
+     * requires symmetric matrix.
+     */
+    public void useSymmetricStorage( boolean flag ) {
+        if (flag != symmetricStorage) {
+            symmetricStorage = flag;
+            H = null;
+            HS = null;
+            scatter = null;
+            factored = false;
+        }
+    }
+
+    /**
+     * Number the equations in Reverse Cuthill-McKee order of the mesh
+     * graph, which narrows the band of the matrix. getMatrix and getRhs are
+     * then in the permuted numbering (see getPermutation), getFld is always
+     * given in the vertex numbering.
+     */
+    public void useReordering( boolean flag ) {
+        if (flag != reordering) {
+            reordering = flag;
+            H = null;
+            HS = null;
+            scatter = null;
+            factored = false;
+        }
+    }
+
+    /**
+     * @return perm[equation] = vertex, or null if the equations follow the
+     * vertex numbering
+     */
+    public int[] getPermutation() {
+        return perm;
+    }
+
+    private int eq(int vertex) {
+        return inv == null ? vertex : inv[vertex];
+    }
+
+    public SparseMatrix getMatrix() {
+        return symmetricStorage ? HS : H;
+    }
+
+    public double[] getRhs() {
+        return rhsv;
     }
 
     public void assemble(EleIntegral p) {
-        H = mesh.makeCRSStructure();
+        if (symmetricStorage && !symmetricMatrix) {
+            throw new IllegalStateException("FEM: symmetric storage needs symmetric matrix");
+        }
+        factored = false;
+        if (scatter == null) {
+            makeStructure();
+        } else if (symmetricStorage) {
+            HS.clear();
+        } else {
+            H.clear();
+        }
+        double[] a = symmetricStorage ? HS.getValues() : H.getValues();
         rhsv = new double[mesh.getNoVertices()];
         for (int e = 0; e < mesh.getNoElems(); e++) {
             Elem elem = mesh.getElem(e);
@@ -68,33 +160,135 @@ public class FEM {
                 xe[v] = mesh.getVertex(nds[v]).getX();
             }
             double[][] here = p.elemat(xe, getMats()[subDomain], srcs[subDomain]);
+            int s = scatterStart[e];
             for (int i = 0; i < nds.length; i++) {
                 for (int j = 0; j < nds.length; j++) {
-                    H.addTo(nds[i], nds[j], here[i][j]);
+                    int k = scatter[s++];
+                    if (k >= 0) {
+                        a[k] += here[i][j];
+                    }
                 }
-                rhsv[nds[i]] += here[i][nds.length];
+                rhsv[eq(nds[i])] += here[i][nds.length];
+            }
+        }
+        if (symmetricStorage) {
+            for (int i = 0; i < bndNodes.length; i++) {
+                HS.applyDirichlet(eq(bndNodes[i]), bndValues[i], rhsv);
             }
+            return;
         }
+        int[] ia = H.getRowPointers();
+        int[] ja = H.getColumnIndices();
         for (int i = 0; i < bndNodes.length; i++) {
-            int v = bndNodes[i];
-            double vv = H.get(v, v);
+            int v = eq(bndNodes[i]);
+            int d = H.indexOf(v, v);
+            double vv = a[d];
             H.clearRow(v);
-            H.addTo(v, v, vv);
+            a[d] = vv;
             rhsv[v] = vv * bndValues[i];
             if (symmetricMatrix) {
-                for (int r = 0; r < H.nRows(); r++) {
+                // the structure is symmetric, so column v has entries only in rows listed in row v
+                for (int k = ia[v]; k < ia[v + 1]; k++) {
+                    int r = ja[k];
                     if (r != v) {
-                        rhsv[r] -= H.get(r, v) * bndValues[i];
-                        H.set(r, v, 0.0);
+                        int rv = H.indexOf(r, v);
+                        rhsv[r] -= a[rv] * bndValues[i];
+                        a[rv] = 0.0;
                     }
                 }
             }
         }
     }
 
+    private void makeStructure() {
+        CRSPattern pattern = mesh.getCRSPattern();   // shared by all models on this mesh
+        if (reordering) {
+            perm = RCM.order(pattern.getRowPointers(), pattern.getColumnIndices());
+            inv = RCM.inverse(perm);
+            pattern = pattern.permute(perm);
+        } else {
+            perm = inv = null;
+        }
+        if (symmetricStorage) {
+            HS = SymmetricCRS.upperOf(new CRS(pattern));
+        } else {
+            H = new CRS(pattern);
+        }
+        scatterStart = new int[mesh.getNoElems() + 1];
+        for (int e = 0; e < mesh.getNoElems(); e++) {
+            int n = mesh.getElem(e).getVertices().length;
+            scatterStart[e + 1] = scatterStart[e] + n * n;
+        }
+        scatter = new int[scatterStart[mesh.getNoElems()]];
+        for (int e = 0; e < mesh.getNoElems(); e++) {
+            int[] nds = mesh.getElem(e).getVertices();
+            int s = scatterStart[e];
+            for (int i = 0; i < nds.length; i++) {
+                for (int j = 0; j < nds.length; j++) {
+                    int r = eq(nds[i]), c = eq(nds[j]);
+                    scatter[s++] = symmetricStorage ? HS.indexOf(r, c) : H.indexOf(r, c);
+                }
+            }
+        }
+    }
+
+    /**
+     * Solves with AMG preconditioned PCG when the matrix is symmetric (SPD
+     * for Laplace problems), with the kept sparse LU factor otherwise (see
+     * solveDirect).
+     */
+    public void solve() {
+        if (symmetricMatrix || symmetricStorage) {
+            solve(new PCG(new AMG()));
+        } else {
+            solveDirect();
+        }
+    }
+
     public void solve(Solver solver) {
         int maxit = mesh.getNoVertices();
-        fld = solver.solve(H, rhsv, getTolerance(), maxit > 1000 ? maxit/10 : maxit);
+        fld = solver.solve(getMatrix(), rhsv, getTolerance(), maxit > 1000 ? maxit/10 : maxit);
+        if (perm != null) {
+            fld = RCM.unpermute(fld, perm);
+        }
+    }
+
+    /**
+     * Solves with sparse Cholesky when the matrix is symmetric, with sparse
+     * LU otherwise. The factor is kept until the matrix changes (assemble,
+     * loadSystem), so further calls and solveDirect(rhs) cost two triangular
+     * sweeps; after assemble LU is refactorized with its old pivots.
+     */
+    public void solveDirect() {
+        fld = solveDirect(rhsv);
+        if (perm != null) {
+            fld = RCM.unpermute(fld, perm);
+        }
+    }
+
+    /**
+     * Solution for another right-hand side with the kept factor.
+     *
+     * @param rhs in the numbering of getMatrix/getRhs
+     * @return solution in the same numbering
+     */
+    public double[] solveDirect(double[] rhs) {
+        boolean symmetric = symmetricMatrix || symmetricStorage;
+        if (direct == null || (direct instanceof SparseCholesky) != symmetric) {
+            direct = symmetric ? new SparseCholesky() : new SparseLU();
+            factored = false;
+        }
+        if (!factored) {
+            direct.refactorize(getMatrix());
+            factored = true;
+        }
+        double[] x = new double[rhs.length];
+        direct.solve(rhs, x);
+        return x;
+    }
+
+    public IMesh getMesh() {
+        return mesh;
     }
 
     /**
@@ -126,7 +320,7 @@ public class FEM {
     }
 
     /**
-     * @return the fld
+     * @return the fld (in the vertex numbering)
      */
     public double[] getFld() {
         return fld;
@@ -163,7 +357,7 @@ public class FEM {
     // Basic test
     public void dump(String file) {
         try (PrintStream f = new PrintStream(new FileOutputStream(file))) {
-            f.println("H=[" + H + "]");
+            f.println("H=[" + getMatrix() + "]");
             f.println("r=[" + vectorToString(rhsv) + "]");
         } catch (Exception e) {
             e.printStackTrace();
@@ -171,6 +365,36 @@ public class FEM {
 
     }
 
+    /**
+     * Saves the assembled system (matrix, rhs and equation permutation) in
+     * the binary format of sm.CRSFile.
+     */
+    public void saveSystem(String file) throws IOException {
+        CRS m = symmetricStorage ? HS.toCRS() : H;
+        CRSFile.write(Paths.get(file), m, rhsv, perm);
+    }
+
+    /**
+     * Loads a system saved by saveSystem instead of assembling it. The next
+     * call to assemble rebuilds the matrix structure.
+     */
+    public void loadSystem(String file) throws IOException {
+        CRSFile f = CRSFile.read(Paths.get(file));
+        if (f.getMatrix().nRows() != mesh.getNoVertices() || f.getMatrix().nCols() != mesh.getNoVertices()
+                || f.getRhs() == null) {
+            throw new IOException("FEM: " + file + " does not hold a system for this mesh");
+        }
+        H = f.getMatrix();
+        HS = null;
+        symmetricStorage = false;
+        scatter = null;
+        rhsv = f.getRhs();
+        factored = false;
+        perm = f.getPermutation();
+        inv = perm == null ? null : RCM.inverse(perm);
+        reordering = perm != null;
+    }
+
     public String matrixToString(double[][] m) {
         String ret = new String();
         for (int i = 0; i < m.length; i++) {
@@ -240,7 +464,7 @@ public class FEM {
             fem.symmetricMatrix = true;
             fem.assemble(integral);
             fem.dump("data/hr.m");
-            fem.solve(new GMRES());
+            fem.solve();
             double[] V = fem.getFld();
             double[] minmax = range(V);
             System.out.println("V in <" + minmax[0] + "," + minmax[1] + ">");
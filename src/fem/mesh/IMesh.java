@@ -2,9 +2,10 @@ package fem.mesh;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Set;
 import java.util.TreeSet;
+import sm.COOBuilder;
 import sm.CRS;
+import sm.CRSPattern;
 
 /**
  *
@@ -51,31 +52,25 @@ public interface IMesh {
     }
 
     default CRS makeCRSStructure() {
-        @SuppressWarnings("unchecked")
-        TreeSet<Integer>[] c = new TreeSet[getNoVertices()];
-        for (int i = 0; i < c.length; i++) {
-            c[i] = new TreeSet<>();
-        }
+        COOBuilder coo = new COOBuilder(getNoVertices(), getNoVertices());
+        COOBuilder.Batch b = coo.newBatch(16 * getNoElems());
         for (int e = 0; e < getNoElems(); e++) {
             int[] n = getElem(e).getVertices();
             for (int i = 0; i < n.length; i++) {
                 for (int j = 0; j < n.length; j++) {
-                    ((Set<Integer>) c[n[i]]).add(n[j]);
-                    ((Set<Integer>) c[n[j]]).add(n[i]);
+                    b.add(n[i], n[j], 0.0);
                 }
             }
         }
-        int [] ia = new int[getNoVertices()+1];
-        for( int v= 0; v < getNoVertices(); v++ )
-            ia[v+1] = ia[v] + ((Set)c[v]).size();
-        int [] ja = new int[ia[getNoVertices()]];
-        double [] a = new double[ja.length];
-        for( int v= 0; v < getNoVertices(); v++ ) {
-            int j= ia[v];
-            for( Integer k : ((Set<Integer>)c[v]))
-                ja[j++] = k;
-        }
-        return new CRS(ia, ja, a);
+        return coo.build();
+    }
+
+    /**
+     * Structure of the vertex-vertex matrix, meant to be shared by all
+     * matrices assembled on this mesh.
+     */
+    default CRSPattern getCRSPattern() {
+        return makeCRSStructure().getPattern();
     }
     
     default CRS buildCRSStructure() {
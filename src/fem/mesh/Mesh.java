@@ -1,6 +1,7 @@
 package fem.mesh;
 
 import java.util.List;
+import sm.CRSPattern;
 
 /**
  *
@@ -12,6 +13,7 @@ public class Mesh implements IMesh {
     private List<Elem> elems;
     private List<Elem> faces;
     private List<Elem> edges;
+    private CRSPattern pattern;
 
     public Mesh(List<Vertex> v, List<Elem> elems, List<Elem> faces, List<Elem> edges) {
         if( v == null || elems == null || faces == null || edges == null )
@@ -22,6 +24,17 @@ public class Mesh implements IMesh {
         this.edges = edges;
     }
 
+    /**
+     * Built on the first call, then shared.
+     */
+    @Override
+    public synchronized CRSPattern getCRSPattern() {
+        if (pattern == null) {
+            pattern = makeCRSStructure().getPattern();
+        }
+        return pattern;
+    }
+
     @Override
     public int getNoVertices() {
         return v.size();
@@ -26,7 +26,6 @@ import java.util.TreeSet;
 import miscutils.Configuration;
 import miscutils.FontFactory;
 import miscutils.MiscUtils;
-import sm.solvers.GMRES;
 
 /**
  *
@@ -35,6 +34,7 @@ import sm.solvers.GMRES;
  *
  * @author jstar
  */
+@SuppressWarnings("serial")   // the frame holds the live model and mesh, it is never serialized
 public class SimpleGUI extends JFrame {
 
     private final boolean VERTICAL_LAYOUT = true;
@@ -56,6 +56,7 @@ public class SimpleGUI extends JFrame {
 
     private IMesh mesh;
     private FEM model;
+    private FEM lastModel;  // kept to re-assemble on the same mesh without rebuilding the matrix structure
 
     private final Map<String, Boolean> options = new HashMap<>();   // diffrent FEM related options
     private final Set<Integer> currentSelection = new TreeSet<>();  // current selection of vertices of elements
@@ -516,8 +517,17 @@ public class SimpleGUI extends JFrame {
             bndNds[i] = v;
             bndVals[i++] = bndNodes.get(v);
         }
-        model = new FEM(mesh, subDomParameters, bndNds, bndVals);
+        if (lastModel != null && lastModel.getMesh() == mesh) {
+            model = lastModel;
+            model.setParameters(subDomParameters);
+            model.setBndNodes(bndNds);
+            model.setBndValues(bndVals);
+        } else {
+            model = new FEM(mesh, subDomParameters, bndNds, bndVals);
+            lastModel = model;
+        }
         model.buildSymmetricMatrix(true);
+        model.useReordering(true);
         Thread thread = new Thread() {
             @Override
             public void run() {
@@ -530,7 +540,7 @@ public class SimpleGUI extends JFrame {
                     if (mesh.getNoVertices() < 10000) {
                         model.dump("data/hr.m");
                     }
-                    model.solve(new GMRES());
+                    model.solve();
                     fieldButton.setEnabled(true);
                     computeButton.setEnabled(true);
                     loadButton.setEnabled(true);
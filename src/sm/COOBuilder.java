@@ -0,0 +1,302 @@
+package sm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Collects (row, col, value) triplets - possibly from many threads - and
+ * builds a CRS with sorted rows and duplicates summed.
+ *
+ * Every thread should fill its own Batch (batches are not thread-safe,
+ * getting one is). build() scatters the batches into buckets of consecutive
+ * rows (one counting pass with per-thread histograms over the buckets and
+ * prefix sums), then every bucket is sorted by row and column and has its
+ * duplicates summed on its own.
+ *
+ * @author jstar
+ */
+public class COOBuilder {
+
+    private static final int PARALLEL_MIN = 1 << 16;
+    private static final int BUCKET_BITS = 11;   // at most 2^11 row buckets
+
+    private final int rows;
+    private final int cols;
+    private final List<Batch> batches = new ArrayList<>();
+
+    public COOBuilder(int rows, int cols) {
+        this.rows = rows;
+        this.cols = cols;
+    }
+
+    /**
+     * Growable triplet buffer owned by one thread.
+     */
+    public class Batch {
+
+        private int[] r;
+        private int[] c;
+        private double[] v;
+        private int size;
+
+        private Batch(int capacity) {
+            r = new int[Math.max(capacity, 16)];
+            c = new int[r.length];
+            v = new double[r.length];
+        }
+
+        public void add(int i, int j, double value) {
+            if (i < 0 || i >= rows || j < 0 || j >= cols) {
+                throw new IllegalArgumentException("COOBuilder: no entry A[" + i + "," + j + "] in " + rows + "x" + cols + " matrix");
+            }
+            if (size == r.length) {
+                int cap = (int) Math.min(Integer.MAX_VALUE - 8, 2L * size);
+                r = Arrays.copyOf(r, cap);
+                c = Arrays.copyOf(c, cap);
+                v = Arrays.copyOf(v, cap);
+            }
+            r[size] = i;
+            c[size] = j;
+            v[size++] = value;
+        }
+
+        public int size() {
+            return size;
+        }
+    }
+
+    public synchronized Batch newBatch() {
+        return newBatch(1024);
+    }
+
+    public synchronized Batch newBatch(int capacity) {
+        Batch b = new Batch(capacity);
+        batches.add(b);
+        return b;
+    }
+
+    /**
+     * Adds triplets (rowIdx[p], colIdx[p], values[p]), p = 0..length-1.
+     * Thread-safe.
+     */
+    public void add(int[] rowIdx, int[] colIdx, double[] values) {
+        Batch b = newBatch(rowIdx.length);
+        for (int p = 0; p < rowIdx.length; p++) {
+            b.add(rowIdx[p], colIdx[p], values[p]);
+        }
+    }
+
+    /**
+     * @return number of triplets added so far
+     */
+    public synchronized long size() {
+        long n = 0;
+        for (Batch b : batches) {
+            n += b.size;
+        }
+        return n;
+    }
+
+    /**
+     * Builds the matrix; the builder may be reused afterwards (its triplets
+     * are kept).
+     */
+    public CRS build() {
+        Batch[] bs;
+        synchronized (this) {
+            bs = batches.toArray(new Batch[0]);
+        }
+        int[] start = new int[bs.length + 1];
+        for (int b = 0; b < bs.length; b++) {
+            long next = (long) start[b] + bs[b].size;
+            if (next > Integer.MAX_VALUE - 8) {
+                throw new IllegalStateException("COOBuilder: too many triplets: " + next);
+            }
+            start[b + 1] = (int) next;
+        }
+        final int n = start[bs.length];
+        final int nt = n >= PARALLEL_MIN ? Parallel.getNoThreads() : 1;
+
+        // rows are split into at most 2^BUCKET_BITS buckets of 2^shift consecutive rows
+        int shift = 0;
+        while ((long) rows > (1L << (BUCKET_BITS + shift))) {
+            shift++;
+        }
+        final int sh = shift;
+        final int nb = Math.max(1, (rows + (1 << sh) - 1) >>> sh);
+
+        // count triplets per (task, bucket), prefix sums give every task its output positions
+        final int[][] next = new int[nt][nb + 1];
+        Parallel.forEach(nt, t -> {
+            int[] h = next[t];
+            int from = (int) ((long) n * t / nt), to = (int) ((long) n * (t + 1) / nt);
+            for (int b = firstBatch(start, from), p = from; p < to; b++) {
+                int[] r = bs[b].r;
+                for (int q = p - start[b], e = Math.min(to, start[b + 1]); p < e; p++, q++) {
+                    h[r[q] >>> sh]++;
+                }
+            }
+        });
+        final int[] bucketStart = new int[nb + 1];
+        int pos = 0;
+        for (int k = 0; k < nb; k++) {
+            bucketStart[k] = pos;
+            for (int t = 0; t < nt; t++) {
+                int cnt = next[t][k];
+                next[t][k] = pos;
+                pos += cnt;
+            }
+        }
+        bucketStart[nb] = pos;
+
+        // scatter the batches into buckets - the only copy of all triplets
+        int[] r = new int[n];
+        int[] c = new int[n];
+        double[] v = new double[n];
+        Parallel.forEach(nt, t -> {
+            int[] h = next[t];
+            int from = (int) ((long) n * t / nt), to = (int) ((long) n * (t + 1) / nt);
+            for (int b = firstBatch(start, from), p = from; p < to; b++) {
+                Batch bt = bs[b];
+                for (int q = p - start[b], e = Math.min(to, start[b + 1]); p < e; p++, q++) {
+                    int d = h[bt.r[q] >>> sh]++;
+                    r[d] = bt.r[q];
+                    c[d] = bt.c[q];
+                    v[d] = bt.v[q];
+                }
+            }
+        });
+
+        // every bucket is sorted by (row, column) and compacted in place, row lengths go to ia
+        int[] ia = new int[rows + 1];
+        final int nTasks = nt == 1 ? 1 : nb;
+        Parallel.forEach(nTasks, k -> {
+            for (int b = nb * k / nTasks; b < nb * (k + 1) / nTasks; b++) {
+                sortBucket(b << sh, endRow(b, sh), bucketStart[b], bucketStart[b + 1], r, c, v, ia);
+            }
+        });
+        for (int i = 0; i < rows; i++) {
+            ia[i + 1] += ia[i];
+        }
+        int[] ja = new int[ia[rows]];
+        double[] a = new double[ia[rows]];
+        Parallel.forEach(nTasks, k -> {
+            for (int b = nb * k / nTasks; b < nb * (k + 1) / nTasks; b++) {
+                int first = ia[b << sh];
+                int len = ia[endRow(b, sh)] - first;
+                System.arraycopy(c, bucketStart[b], ja, first, len);
+                System.arraycopy(v, bucketStart[b], a, first, len);
+            }
+        });
+        return new CRS(new CRSPattern(ia, ja, cols), a);
+    }
+
+    private int endRow(int bucket, int shift) {
+        return (int) Math.min(rows, (long) (bucket + 1) << shift);
+    }
+
+    /**
+     * @return batch holding triplet p of the concatenation (start: batch offsets)
+     */
+    private static int firstBatch(int[] start, int p) {
+        int lo = 0, hi = start.length - 2;
+        while (lo < hi) {   // last batch starting at or before p
+            int mid = (lo + hi + 1) >>> 1;
+            if (start[mid] <= p) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Sorts triplets [from,to) of rows [firstRow,endRow) by row, then by
+     * column, sums duplicates and writes the result to the front of
+     * c[from..] and v[from..]; ia[i+1] gets the length of row i.
+     */
+    private static void sortBucket(int firstRow, int endRow, int from, int to,
+            int[] r, int[] c, double[] v, int[] ia) {
+        int len = to - from;
+        if (len == 0) {
+            return;
+        }
+        int[] rowPos = new int[endRow - firstRow + 1];
+        for (int p = from; p < to; p++) {
+            rowPos[r[p] - firstRow + 1]++;
+        }
+        for (int i = 0; i < rowPos.length - 1; i++) {
+            rowPos[i + 1] += rowPos[i];
+        }
+        // key: column in the upper half, position of the value in the lower
+        long[] key = new long[len];
+        double[] val = new double[len];
+        for (int p = from; p < to; p++) {
+            int d = rowPos[r[p] - firstRow]++;
+            key[d] = ((long) c[p] << 32) | d;
+            val[d] = v[p];
+        }
+        int out = from, rowFrom = 0;
+        for (int i = firstRow; i < endRow; i++) {
+            int rowTo = rowPos[i - firstRow];
+            Arrays.sort(key, rowFrom, rowTo);
+            int rowOut = out;
+            for (int q = rowFrom; q < rowTo; q++) {
+                int col = (int) (key[q] >>> 32);
+                double x = val[(int) key[q]];
+                if (out > rowOut && c[out - 1] == col) {
+                    v[out - 1] += x;
+                } else {
+                    c[out] = col;
+                    v[out++] = x;
+                }
+            }
+            ia[i + 1] = out - rowOut;
+            rowFrom = rowTo;
+        }
+    }
+
+    public static void main(String[] args) {
+        java.util.Random rg = new java.util.Random();
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 3000;
+        int cols = rows / 2 + 1;   // rectangular on purpose
+        int nz = 40 * rows;
+        int[] ri = new int[nz], ci = new int[nz];
+        double[] vi = new double[nz];
+        HashSM ref = new HashSM(rows, cols);
+        for (int p = 0; p < nz; p++) {
+            ri[p] = rg.nextInt(rows);
+            ci[p] = rg.nextInt(Math.min(cols, 64));   // many duplicates
+            vi[p] = rg.nextDouble();
+            ref.addTo(ri[p], ci[p], vi[p]);
+        }
+        int threads = Parallel.getNoThreads();
+        for (int nt : new int[]{1, Math.max(threads, 4)}) {
+            Parallel.setNoThreads(nt);
+            COOBuilder coo = new COOBuilder(rows, cols);
+            int nb = 7;
+            Parallel.forEach(nb, b -> {   // batches filled concurrently
+                Batch batch = coo.newBatch(nz / nb + 1);
+                for (int p = nz * b / nb; p < nz * (b + 1) / nb; p++) {
+                    batch.add(ri[p], ci[p], vi[p]);
+                }
+            });
+            coo.newBatch();   // an empty batch must not disturb anything
+            CRS m = coo.build();
+            int[] ia = m.getRowPointers(), ja = m.getColumnIndices();
+            double err = 0.0;
+            boolean sorted = m.nRows() == rows && m.nCols() == cols;
+            for (int i = 0; i < rows; i++) {
+                for (int k = ia[i]; k < ia[i + 1]; k++) {
+                    sorted &= k == ia[i] || ja[k - 1] < ja[k];
+                    err = Math.max(err, Math.abs(m.getValues()[k] - ref.get(i, ja[k])));
+                }
+            }
+            System.out.println(nt + " threads: " + m.nRows() + "x" + m.nCols() + ", " + m.nNonZeroes()
+                    + " non-zeroes (expected " + ref.nNonZeroes() + "), rows sorted: " + sorted + ", max error " + err);
+        }
+        Parallel.setNoThreads(threads);
+    }
+}
@@ -1,21 +1,62 @@
 package sm;
 
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+
 /**
+ * Compressed row storage: a CRSPattern (shared, immutable) and a value
+ * array of its own.
  *
  * @author jstar
  */
 public class CRS implements SparseMatrix {
 
-    private int[] ia;
-    private int[] ja;
-    private double[] a;
+    private static boolean defaultParallel = Boolean.getBoolean("sm.parallel");
+    private static int parallelThreshold = 50000;
+
+    private final CRSPattern pattern;
+    private final int[] ia;    // pattern arrays, kept here for fast access
+    private final int[] ja;
+    private final double[] a;
+    private Boolean parallel;
+    private boolean mergePath;
+    private final AtomicReference<double[][]> partials = new AtomicReference<>();   // spare buffers of multiplyTransposed
 
     public CRS(int[] ia, int[] ja, double[] a) {
-        this.ia = ia;
-        this.ja = ja;
+        this(new CRSPattern(ia, ja), a);
+    }
+
+    public CRS(CRSPattern pattern, double[] a) {
+        if (a.length < pattern.nNonZeroes()) {
+            throw new IllegalArgumentException("CRS: " + a.length + " values for " + pattern.nNonZeroes() + " non-zeroes");
+        }
+        this.pattern = pattern;
+        this.ia = pattern.getRowPointers();
+        this.ja = pattern.getColumnIndices();
         this.a = a;
     }
 
+    /**
+     * Zero matrix with the given structure.
+     */
+    public CRS(CRSPattern pattern) {
+        this(pattern, new double[pattern.nNonZeroes()]);
+    }
+
+    /**
+     * @return matrix sharing the pattern, with a copy of the values
+     */
+    public CRS copy() {
+        CRS c = new CRS(pattern, a.clone());
+        c.parallel = parallel;
+        c.mergePath = mergePath;
+        return c;
+    }
+
+    public CRSPattern getPattern() {
+        return pattern;
+    }
+
     @Override
     public int nRows() {
         return ia.length - 1;
@@ -23,7 +64,7 @@ public class CRS implements SparseMatrix {
 
     @Override
     public int nCols() {
-        return ia.length - 1;
+        return pattern.nCols();
     }
     
     @Override
@@ -53,6 +94,44 @@ public class CRS implements SparseMatrix {
             throw new IllegalArgumentException("CRS: No entry A[" + i + "," + j + "]");
     }
     
+    /**
+     * @return position of A[i,j] in the value array or -1 if it is not stored
+     */
+    public int indexOf(int i, int j) {
+        for (int k = ia[i]; k < ia[i + 1]; k++) {
+            if (ja[k] == j) {
+                return k;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Row pointers - row i is stored at positions ia[i] .. ia[i+1]-1. The
+     * array belongs to the pattern and must not be modified.
+     */
+    public int[] getRowPointers() {
+        return ia;
+    }
+
+    public int[] getColumnIndices() {
+        return ja;
+    }
+
+    /**
+     * The value array itself (not a copy), indexed like getColumnIndices.
+     */
+    public double[] getValues() {
+        return a;
+    }
+
+    /**
+     * Sets all stored values to zero, keeping the structure.
+     */
+    public void clear() {
+        Arrays.fill(a, 0.0);
+    }
+
     public void clearRow( int i ) {
         for( int k = ia[i]; k < ia[i + 1]; k++ )
             a[k] = 0.0;
@@ -68,33 +147,339 @@ public class CRS implements SparseMatrix {
         throw new IllegalArgumentException("CRS: No entry A[" + i + "," + j + "]");
     }
 
-    @Override
-    public double[] multiply(double[] x) {
-        double[] r = new double[x.length];
-        for (int i = 0; i < ia.length - 1; i++) {
-            for (int k = ia[i]; k < ia[i + 1]; k++) {
-                r[i] += x[ja[k]] * a[k];
+    /**
+     * Switches parallel SpMV on/off for all matrices which were not
+     * configured individually by setParallel.
+     */
+    public static void setDefaultParallel(boolean flag) {
+        defaultParallel = flag;
+    }
+
+    public static boolean isDefaultParallel() {
+        return defaultParallel;
+    }
+
+    /**
+     * Matrices with fewer non-zeroes are always multiplied sequentially.
+     */
+    public static void setParallelThreshold(int nnz) {
+        parallelThreshold = nnz;
+    }
+
+    public static int getParallelThreshold() {
+        return parallelThreshold;
+    }
+
+    public void setParallel(boolean flag) {
+        parallel = flag;
+    }
+
+    public boolean isParallel() {
+        return parallel == null ? defaultParallel : parallel;
+    }
+
+    /**
+     * Parallel SpMV splits the merged sequence of row ends and non-zeroes
+     * (merge path) evenly between the threads instead of splitting rows.
+     * Meant for matrices with very irregular row lengths: a single long row
+     * is shared by several threads.
+     */
+    public void setMergePath(boolean flag) {
+        mergePath = flag;
+    }
+
+    public boolean isMergePath() {
+        return mergePath;
+    }
+
+    private boolean runParallel() {
+        return isParallel() && Parallel.getNoThreads() > 1 && a.length >= parallelThreshold;
+    }
+
+    /**
+     * Row blocks holding (almost) equal numbers of non-zeroes: block t
+     * covers rows rowBlocks[t] .. rowBlocks[t+1]-1.
+     */
+    int[] rowBlocks() {
+        return pattern.rowBlocks(4 * Parallel.getNoThreads());
+    }
+
+    static int[] balancedRowBlocks(int[] ia, int nParts) {
+        int n = ia.length - 1;
+        long nnz = ia[n];
+        int[] blocks = new int[nParts + 1];
+        for (int t = 1; t < nParts; t++) {
+            long target = nnz * t / nParts;
+            int lo = blocks[t - 1], hi = n;
+            while (lo < hi) {   // first row starting at or after target
+                int mid = (lo + hi) >>> 1;
+                if (ia[mid] < target) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
             }
+            blocks[t] = lo;
         }
+        blocks[nParts] = n;
+        return blocks;
+    }
+
+    @Override
+    public double[] multiply(double[] x) {
+        double[] r = new double[ia.length - 1];
+        multiply(x, r);
         return r;
     }
     
     @Override
     public void multiply(double[] x, double[] r) {
-        for (int i = 0; i < ia.length - 1; i++) {
-            r[i] = 0.0;
+        if (runParallel() && mergePath) {
+            multiplyMergePath(x, r);
+        } else if (runParallel()) {
+            final int[] blocks = rowBlocks();
+            Parallel.forEach(blocks.length - 1, t -> multiplyRows(x, r, blocks[t], blocks[t + 1]));
+        } else {
+            multiplyRows(x, r, 0, ia.length - 1);
+        }
+    }
+
+    private void multiplyRows(double[] x, double[] r, int from, int to) {
+        for (int i = from; i < to; i++) {
+            double s = 0.0;
+            for (int k = ia[i]; k < ia[i + 1]; k++) {
+                s += x[ja[k]] * a[k];
+            }
+            r[i] = s;
+        }
+    }
+
+    // thread t walks the merge path from diagonal t*L/nt to (t+1)*L/nt, L = n + nnz;
+    // the sum of a row it leaves unfinished is carried and added afterwards
+    private void multiplyMergePath(double[] x, double[] r) {
+        final int n = ia.length - 1;
+        final int nnz = ia[n];
+        final int nt = Parallel.getNoThreads();
+        final int[] carryRow = new int[nt];
+        final double[] carry = new double[nt];
+        Parallel.forEach(nt, t -> {
+            long len = (long) n + nnz;
+            int d0 = (int) (len * t / nt), d1 = (int) (len * (t + 1) / nt);
+            int i = mergePathRow(d0, n, nnz), iEnd = mergePathRow(d1, n, nnz);
+            int k = d0 - i, kEnd = d1 - iEnd;
+            for (; i < iEnd; i++) {
+                double s = 0.0;
+                for (; k < ia[i + 1]; k++) {
+                    s += x[ja[k]] * a[k];
+                }
+                r[i] = s;
+            }
+            double s = 0.0;
+            for (; k < kEnd; k++) {
+                s += x[ja[k]] * a[k];
+            }
+            carryRow[t] = iEnd;
+            carry[t] = s;
+        });
+        for (int t = 0; t < nt; t++) {
+            if (carryRow[t] < n) {
+                r[carryRow[t]] += carry[t];
+            }
+        }
+    }
+
+    // number of rows finished on the merge path before diagonal d
+    private int mergePathRow(int d, int n, int nnz) {
+        int lo = Math.max(d - nnz, 0), hi = Math.min(d, n);
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (ia[mid + 1] <= d - mid - 1) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    private interface RowSum {
+
+        double apply(int from, int to);
+    }
+
+    // sum of body over all rows, by row blocks when parallel (partial sums added in block order)
+    private double sumRows(RowSum body) {
+        if (runParallel()) {
+            final int[] blocks = rowBlocks();
+            final int nb = blocks.length - 1;
+            final double[] part = Parallel.takePartials(nb);
+            try {
+                Parallel.forEach(nb, t -> part[t] = body.apply(blocks[t], blocks[t + 1]));
+                double s = 0.0;
+                for (int t = 0; t < nb; t++) {
+                    s += part[t];
+                }
+                return s;
+            } finally {
+                Parallel.releasePartials(part);
+            }
+        }
+        return body.apply(0, ia.length - 1);
+    }
+
+    /**
+     * r = b - A x and its norm in a single sweep.
+     *
+     * @return ||r||
+     */
+    @Override
+    public double residual(double[] b, double[] x, double[] r) {
+        return Math.sqrt(sumRows((from, to) -> {
+            double s2 = 0.0;
+            for (int i = from; i < to; i++) {
+                double s = b[i];
+                for (int k = ia[i]; k < ia[i + 1]; k++) {
+                    s -= x[ja[k]] * a[k];
+                }
+                r[i] = s;
+                s2 += s * s;
+            }
+            return s2;
+        }));
+    }
+
+    /**
+     * ax = A x together with w . ax in a single sweep.
+     */
+    @Override
+    public double multiplyDot(double[] x, double[] ax, double[] w) {
+        return sumRows((from, to) -> {
+            double d = 0.0;
+            for (int i = from; i < to; i++) {
+                double s = 0.0;
+                for (int k = ia[i]; k < ia[i + 1]; k++) {
+                    s += x[ja[k]] * a[k];
+                }
+                ax[i] = s;
+                d += w[i] * s;
+            }
+            return d;
+        });
+    }
+
+    /**
+     * y = alpha A x + beta y in a single sweep.
+     */
+    @Override
+    public void multiplyAdd(double alpha, double[] x, double beta, double[] y) {
+        if (runParallel()) {
+            final int[] blocks = rowBlocks();
+            Parallel.forEach(blocks.length - 1, t -> multiplyAddRows(alpha, x, beta, y, blocks[t], blocks[t + 1]));
+        } else {
+            multiplyAddRows(alpha, x, beta, y, 0, ia.length - 1);
+        }
+    }
+
+    private void multiplyAddRows(double alpha, double[] x, double beta, double[] y, int from, int to) {
+        for (int i = from; i < to; i++) {
+            double s = 0.0;
             for (int k = ia[i]; k < ia[i + 1]; k++) {
-                r[i] += x[ja[k]] * a[k];
+                s += x[ja[k]] * a[k];
+            }
+            y[i] = beta == 0.0 ? alpha * s : alpha * s + beta * y[i];
+        }
+    }
+
+    /**
+     * Y = A X for k interleaved vectors (X[j*k + c] = x_c[j]): every matrix
+     * entry is loaded once and applied to all k vectors.
+     */
+    @Override
+    public void multiply(double[] X, double[] Y, int k) {
+        if (runParallel()) {
+            final int[] blocks = rowBlocks();
+            Parallel.forEach(blocks.length - 1, t -> multiplyRows(X, Y, k, blocks[t], blocks[t + 1]));
+        } else {
+            multiplyRows(X, Y, k, 0, ia.length - 1);
+        }
+    }
+
+    private void multiplyRows(double[] X, double[] Y, int k, int from, int to) {
+        for (int i = from; i < to; i++) {
+            int yi = i * k;
+            Arrays.fill(Y, yi, yi + k, 0.0);
+            for (int p = ia[i]; p < ia[i + 1]; p++) {
+                double v = a[p];
+                int xj = ja[p] * k;
+                for (int c = 0; c < k; c++) {
+                    Y[yi + c] += v * X[xj + c];
+                }
+            }
+        }
+    }
+
+    /**
+     * result = A^T x, computed as a scatter over the rows of A (A^T is
+     * never formed).
+     */
+    @Override
+    public void multiplyTransposed(double[] x, double[] result) {
+        if (runParallel()) {
+            multiplyTransposedParallel(x, result);
+            return;
+        }
+        Arrays.fill(result, 0, nCols(), 0.0);
+        scatterRows(x, result, 0, ia.length - 1);
+    }
+
+    private void scatterRows(double[] x, double[] result, int from, int to) {
+        for (int i = from; i < to; i++) {
+            double xi = x[i];
+            if (xi != 0.0) {
+                for (int k = ia[i]; k < ia[i + 1]; k++) {
+                    result[ja[k]] += a[k] * xi;
+                }
             }
         }
     }
 
+    // every thread scatters its share of the row blocks into a private buffer, then the buffers
+    // are summed column-wise; concurrent calls do not share buffers (one set is kept for reuse)
+    private void multiplyTransposedParallel(double[] x, double[] result) {
+        final int nt = Parallel.getNoThreads();
+        final int n = nCols();
+        double[][] spare = partials.getAndSet(null);
+        if (spare == null || spare.length != nt || spare[0].length != n) {
+            spare = new double[nt][n];
+        }
+        final double[][] bufs = spare;
+        final int[] blocks = rowBlocks();
+        final int nb = blocks.length - 1;
+        Parallel.forEach(nt, t -> {
+            double[] buf = bufs[t];
+            Arrays.fill(buf, 0.0);
+            scatterRows(x, buf, blocks[nb * t / nt], blocks[nb * (t + 1) / nt]);
+        });
+        final int chunk = (n + nt - 1) / nt;
+        Parallel.forEach(nt, t -> {
+            int from = t * chunk, to = Math.min(n, from + chunk);
+            for (int j = from; j < to; j++) {
+                double s = 0.0;
+                for (double[] buf : bufs) {
+                    s += buf[j];
+                }
+                result[j] = s;
+            }
+        });
+        partials.set(bufs);
+    }
+
     @Override
     public SparseMatrix transpose() { 
         int rows = ia.length - 1;
-        int cols = rows;
+        int cols = nCols();
         int[] iaT = new int[cols + 1];
-        int nnz = a.length;
+        int nnz = ia[rows];
         int[] jaT = new int[nnz];
         double[] aT = new double[nnz];
 
@@ -126,11 +511,68 @@ public class CRS implements SparseMatrix {
         }
         iaT[0] = 0;
 
-        return new CRS(iaT, jaT, aT);
+        return new CRS(new CRSPattern(iaT, jaT, rows), aT);
     }
     
+    /**
+     * Symmetric permutation P A P^T: entry (i,j) of the result is
+     * A[perm[i],perm[j]] (perm[new] = old, see RCM).
+     */
+    public CRS permute(int[] perm) {
+        int n = ia.length - 1;
+        if (nCols() != n || perm.length != n) {
+            throw new IllegalArgumentException("CRS: permutation of length " + perm.length + " for " + n + "x" + nCols() + " matrix");
+        }
+        int[] inv = RCM.inverse(perm);
+        int[] pia = new int[n + 1];
+        for (int i = 0; i < n; i++) {
+            pia[i + 1] = pia[i] + ia[perm[i] + 1] - ia[perm[i]];
+        }
+        int[] pja = new int[pia[n]];
+        double[] pa = new double[pia[n]];
+        for (int i = 0; i < n; i++) {
+            int p = pia[i];
+            for (int k = ia[perm[i]]; k < ia[perm[i] + 1]; k++, p++) {
+                pja[p] = inv[ja[k]];
+                pa[p] = a[k];
+            }
+            sortRow(pja, pa, pia[i], pia[i + 1]);
+        }
+        return new CRS(pia, pja, pa);
+    }
+
+    // orders entries from..to-1 by column
+    static void sortRow(int[] ja, double[] a, int from, int to) {
+        if (to - from <= 32) {
+            for (int p = from + 1; p < to; p++) {
+                int j = ja[p];
+                double v = a[p];
+                int q = p - 1;
+                while (q >= from && ja[q] > j) {
+                    ja[q + 1] = ja[q];
+                    a[q + 1] = a[q];
+                    q--;
+                }
+                ja[q + 1] = j;
+                a[q + 1] = v;
+            }
+        } else {
+            long[] keys = new long[to - from];
+            for (int p = from; p < to; p++) {
+                keys[p - from] = ((long) ja[p] << 32) | (p - from);
+            }
+            Arrays.sort(keys);
+            double[] v = Arrays.copyOfRange(a, from, to);
+            for (int p = from; p < to; p++) {
+                long key = keys[p - from];
+                ja[p] = (int) (key >>> 32);
+                a[p] = v[(int) key];
+            }
+        }
+    }
+
     public HashSM toHashSM() {
-        HashSM hsm = new HashSM(ia.length-1,ia.length-1);
+        HashSM hsm = new HashSM(ia.length-1,nCols());
         for (int i = 0; i < ia.length - 1; i++) {
             for (int k = ia[i]; k < ia[i + 1]; k++) {
                 hsm.set( i, ja[k], a[k] );
@@ -144,7 +586,7 @@ public class CRS implements SparseMatrix {
         int n = ia.length - 1;
         StringBuilder ret = new StringBuilder();
         for (int i = 0; i < n; i++) {
-            for (int j = 0; j < n; j++) {
+            for (int j = 0; j < nCols(); j++) {
                 ret.append(get(i, j)).append(" ");
             }
             ret.append("\n");
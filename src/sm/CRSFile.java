@@ -0,0 +1,316 @@
+package sm;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Binary container for a CRS matrix with an optional right-hand side and
+ * equation permutation.
+ *
+ * Layout (little endian): header - magic "JFEMCRS1", n (int), nnz (int),
+ * flags (int), nCols (int); blocks ia[n+1], ja[nnz] (ints), a[nnz]
+ * (doubles, 8-byte aligned), rhs[n] (doubles), perm[n] (ints, a
+ * permutation of 0..n-1); CRC32 of everything before it (long).
+ *
+ * Reading maps the file (FileChannel.map) and copies the blocks into the
+ * arrays in bulk - there is nothing to parse.
+ *
+ * @author jstar
+ */
+public class CRSFile {
+
+    private static final long MAGIC = 0x315352434d45464aL;   // "JFEMCRS1" read as little endian long
+    private static final int HEADER = 24;
+    private static final int HAS_RHS = 1;
+    private static final int HAS_PERM = 2;
+    private static final int BLOCK = 1 << 30;   // bytes mapped at once
+
+    private final CRS matrix;
+    private final double[] rhs;
+    private final int[] perm;
+
+    private CRSFile(CRS matrix, double[] rhs, int[] perm) {
+        this.matrix = matrix;
+        this.rhs = rhs;
+        this.perm = perm;
+    }
+
+    public CRS getMatrix() {
+        return matrix;
+    }
+
+    /**
+     * @return right-hand side or null if it was not saved
+     */
+    public double[] getRhs() {
+        return rhs;
+    }
+
+    /**
+     * @return permutation or null if it was not saved
+     */
+    public int[] getPermutation() {
+        return perm;
+    }
+
+    public static void write(Path file, CRS m) throws IOException {
+        write(file, m, null, null);
+    }
+
+    /**
+     * @param rhs may be null
+     * @param perm may be null
+     */
+    public static void write(Path file, CRS m, double[] rhs, int[] perm) throws IOException {
+        int n = m.nRows();
+        int[] ia = m.getRowPointers();
+        int nnz = ia[n];
+        if ((rhs != null && rhs.length != n) || (perm != null && perm.length != n)) {
+            throw new IllegalArgumentException("CRSFile: vector length differs from matrix size " + n);
+        }
+        if (perm != null && !isPermutation(perm)) {
+            throw new IllegalArgumentException("CRSFile: perm is not a permutation of 0.." + (n - 1));
+        }
+        CRC32 crc = new CRC32();
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE)) {
+            ByteBuffer buf = ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+            buf.putLong(MAGIC).putInt(n).putInt(nnz).putInt((rhs != null ? HAS_RHS : 0) | (perm != null ? HAS_PERM : 0)).putInt(m.nCols());
+            long pos = HEADER;
+            pos = putInts(ch, buf, crc, ia, 0, n + 1, pos);
+            pos = putInts(ch, buf, crc, m.getColumnIndices(), 0, nnz, pos);
+            if (pos % 8 != 0) {
+                if (buf.remaining() < 4) {
+                    flush(ch, buf, crc);
+                }
+                buf.putInt(0);
+                pos += 4;
+            }
+            pos = putDoubles(ch, buf, crc, m.getValues(), nnz, pos);
+            if (rhs != null) {
+                pos = putDoubles(ch, buf, crc, rhs, n, pos);
+            }
+            if (perm != null) {
+                pos = putInts(ch, buf, crc, perm, 0, n, pos);
+            }
+            flush(ch, buf, crc);
+            buf.putLong(crc.getValue());
+            buf.flip();
+            while (buf.hasRemaining()) {
+                ch.write(buf);
+            }
+        }
+    }
+
+    private static void flush(FileChannel ch, ByteBuffer buf, CRC32 crc) throws IOException {
+        buf.flip();
+        crc.update(buf.duplicate());
+        while (buf.hasRemaining()) {
+            ch.write(buf);
+        }
+        buf.clear();
+    }
+
+    private static long putInts(FileChannel ch, ByteBuffer buf, CRC32 crc, int[] v, int from, int to, long pos) throws IOException {
+        for (int i = from; i < to;) {
+            if (buf.remaining() < 4) {
+                flush(ch, buf, crc);
+            }
+            int len = Math.min(buf.remaining() / 4, to - i);
+            buf.asIntBuffer().put(v, i, len);
+            buf.position(buf.position() + 4 * len);
+            i += len;
+        }
+        return pos + 4L * (to - from);
+    }
+
+    private static long putDoubles(FileChannel ch, ByteBuffer buf, CRC32 crc, double[] v, int len, long pos) throws IOException {
+        for (int i = 0; i < len;) {
+            if (buf.remaining() < 8) {
+                flush(ch, buf, crc);
+            }
+            int l = Math.min(buf.remaining() / 8, len - i);
+            buf.asDoubleBuffer().put(v, i, l);
+            buf.position(buf.position() + 8 * l);
+            i += l;
+        }
+        return pos + 8L * len;
+    }
+
+    public static CRSFile read(Path file) throws IOException {
+        return read(file, true);
+    }
+
+    /**
+     * @param verify check the CRC32 (one additional pass over the mapped file)
+     */
+    public static CRSFile read(Path file, boolean verify) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = ch.size();
+            if (size < HEADER + 8) {
+                throw new IOException("CRSFile: " + file + " is too short");
+            }
+            ByteBuffer h = map(ch, 0, HEADER);
+            if (h.getLong() != MAGIC) {
+                throw new IOException("CRSFile: " + file + " is not a CRS file");
+            }
+            int n = h.getInt();
+            int nnz = h.getInt();
+            int flags = h.getInt();
+            int nCols = h.getInt();
+            if (n < 0 || nnz < 0 || nCols < 0) {
+                throw new IOException("CRSFile: " + file + " has a corrupt header (n=" + n + ", nnz=" + nnz + ", nCols=" + nCols + ")");
+            }
+            long expected = ((HEADER + 4L * (n + 1) + 4L * nnz + 7) & ~7L) + 8L * nnz
+                    + ((flags & HAS_RHS) != 0 ? 8L * n : 0) + ((flags & HAS_PERM) != 0 ? 4L * n : 0) + 8;
+            if (expected != size) {
+                throw new IOException("CRSFile: " + file + " has wrong length " + size + ", expected " + expected);
+            }
+            long pos = HEADER;
+            int[] ia = new int[n + 1];
+            pos = getInts(ch, pos, ia);
+            int[] ja = new int[nnz];
+            pos = getInts(ch, pos, ja);
+            pos = (pos + 7) & ~7L;
+            double[] a = new double[nnz];
+            pos = getDoubles(ch, pos, a);
+            double[] rhs = null;
+            if ((flags & HAS_RHS) != 0) {
+                rhs = new double[n];
+                pos = getDoubles(ch, pos, rhs);
+            }
+            int[] perm = null;
+            if ((flags & HAS_PERM) != 0) {
+                perm = new int[n];
+                pos = getInts(ch, pos, perm);
+            }
+            if (verify) {
+                CRC32 crc = new CRC32();
+                for (long p = 0; p < pos; p += BLOCK) {
+                    crc.update(map(ch, p, Math.min(BLOCK, pos - p)));
+                }
+                if (crc.getValue() != map(ch, pos, 8).getLong()) {
+                    throw new IOException("CRSFile: " + file + " checksum mismatch");
+                }
+            }
+            if (ia[0] != 0 || ia[n] != nnz) {
+                throw new IOException("CRSFile: " + file + " has inconsistent row pointers");
+            }
+            if (!verify) {
+                // without the checksum at least the indices must be usable
+                for (int i = 0; i < n; i++) {
+                    if (ia[i + 1] < ia[i]) {
+                        throw new IOException("CRSFile: " + file + " has inconsistent row pointers");
+                    }
+                }
+                for (int k = 0; k < nnz; k++) {
+                    if (ja[k] < 0 || ja[k] >= nCols) {
+                        throw new IOException("CRSFile: " + file + " has column index " + ja[k] + " out of range");
+                    }
+                }
+            }
+            if (perm != null && !isPermutation(perm)) {
+                throw new IOException("CRSFile: " + file + " holds an invalid equation permutation");
+            }
+            return new CRSFile(new CRS(new CRSPattern(ia, ja, nCols), a), rhs, perm);
+        }
+    }
+
+    private static boolean isPermutation(int[] perm) {
+        boolean[] seen = new boolean[perm.length];
+        for (int p : perm) {
+            if (p < 0 || p >= perm.length || seen[p]) {
+                return false;
+            }
+            seen[p] = true;
+        }
+        return true;
+    }
+
+    private static ByteBuffer map(FileChannel ch, long pos, long size) throws IOException {
+        MappedByteBuffer b = ch.map(FileChannel.MapMode.READ_ONLY, pos, size);
+        return b.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static long getInts(FileChannel ch, long pos, int[] v) throws IOException {
+        int step = BLOCK / 4;
+        for (int i = 0; i < v.length; i += step) {
+            int len = Math.min(step, v.length - i);
+            map(ch, pos, 4L * len).asIntBuffer().get(v, i, len);
+            pos += 4L * len;
+        }
+        return pos;
+    }
+
+    private static long getDoubles(FileChannel ch, long pos, double[] v) throws IOException {
+        int step = BLOCK / 8;
+        for (int i = 0; i < v.length; i += step) {
+            int len = Math.min(step, v.length - i);
+            map(ch, pos, 8L * len).asDoubleBuffer().get(v, i, len);
+            pos += 8L * len;
+        }
+        return pos;
+    }
+
+    public static void main(String[] args) throws IOException {
+        java.util.Random rg = new java.util.Random();
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        Path file = java.nio.file.Files.createTempFile("crsfile", ".bin");
+        try {
+            for (int cols : new int[]{n, n / 3 + 1}) {
+                COOBuilder coo = new COOBuilder(n, cols);
+                COOBuilder.Batch b = coo.newBatch();
+                for (int k = 0; k < 10 * n; k++) {
+                    b.add(rg.nextInt(n), rg.nextInt(cols), rg.nextDouble());
+                }
+                CRS m = coo.build();
+                double[] rhs = new double[n];
+                int[] perm = new int[n];
+                for (int i = 0; i < n; i++) {
+                    rhs[i] = rg.nextDouble();
+                    perm[i] = n - 1 - i;
+                }
+                write(file, m, rhs, perm);
+                for (boolean verify : new boolean[]{true, false}) {
+                    CRSFile f = read(file, verify);
+                    CRS r = f.getMatrix();
+                    boolean same = r.nRows() == m.nRows() && r.nCols() == m.nCols()
+                            && java.util.Arrays.equals(r.getRowPointers(), m.getRowPointers())
+                            && java.util.Arrays.equals(r.getColumnIndices(), m.getColumnIndices())
+                            && java.util.Arrays.equals(r.getValues(), m.getValues())
+                            && java.util.Arrays.equals(f.getRhs(), rhs) && java.util.Arrays.equals(f.getPermutation(), perm);
+                    System.out.println(n + "x" + cols + ", verify " + verify + ": round trip " + (same ? "OK" : "FAILED"));
+                }
+            }
+            // a broken permutation (perm[n-1] repeats perm[0]) must be rejected even without the checksum
+            try (FileChannel ch = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                ByteBuffer v = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(n > 1 ? n - 1 : n);
+                v.flip();
+                ch.write(v, ch.size() - 12);
+            }
+            try {
+                read(file, false);
+                System.out.println("broken permutation: accepted - FAILED");
+            } catch (IOException e) {
+                System.out.println("broken permutation: " + e.getMessage());
+            }
+            try (FileChannel ch = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                ch.truncate(ch.size() - 4);
+            }
+            try {
+                read(file);
+                System.out.println("truncated file: accepted - FAILED");
+            } catch (IOException e) {
+                System.out.println("truncated file: " + e.getMessage());
+            }
+        } finally {
+            java.nio.file.Files.delete(file);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package sm;
+
+/**
+ * Sparsity structure (row pointers and column indices) of a CRS matrix.
+ * It is immutable, so any number of matrices may share one pattern and
+ * differ only by their value arrays.
+ *
+ * @author jstar
+ */
+public final class CRSPattern {
+
+    private final int[] ia;
+    private final int[] ja;
+    private final int nCols;
+    private volatile int[] rowBlocks;
+
+    /**
+     * Square pattern: ia.length-1 rows and columns.
+     */
+    public CRSPattern(int[] ia, int[] ja) {
+        this(ia, ja, ia.length - 1);
+    }
+
+    public CRSPattern(int[] ia, int[] ja, int nCols) {
+        if (ia.length == 0 || ia[0] != 0 || ia[ia.length - 1] > ja.length) {
+            throw new IllegalArgumentException("CRSPattern: inconsistent row pointers");
+        }
+        this.ia = ia;
+        this.ja = ja;
+        this.nCols = nCols;
+    }
+
+    public int nRows() {
+        return ia.length - 1;
+    }
+
+    public int nCols() {
+        return nCols;
+    }
+
+    public int nNonZeroes() {
+        return ia[ia.length - 1];
+    }
+
+    /**
+     * Row pointers - row i is stored at positions ia[i] .. ia[i+1]-1. The
+     * array must not be modified.
+     */
+    public int[] getRowPointers() {
+        return ia;
+    }
+
+    /**
+     * The array must not be modified.
+     */
+    public int[] getColumnIndices() {
+        return ja;
+    }
+
+    /**
+     * @return position of (i,j) in the value arrays or -1 if it is not stored
+     */
+    public int indexOf(int i, int j) {
+        for (int k = ia[i]; k < ia[i + 1]; k++) {
+            if (ja[k] == j) {
+                return k;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Row blocks holding (almost) equal numbers of non-zeroes, computed once
+     * per number of parts and shared by all matrices using the pattern.
+     */
+    int[] rowBlocks(int nParts) {
+        int[] blocks = rowBlocks;
+        if (blocks == null || blocks.length != nParts + 1) {
+            blocks = CRS.balancedRowBlocks(ia, nParts);
+            rowBlocks = blocks;
+        }
+        return blocks;
+    }
+
+    /**
+     * @return pattern of P A P^T (perm[new] = old, see RCM), rows sorted
+     */
+    public CRSPattern permute(int[] perm) {
+        return new CRS(this).permute(perm).getPattern();
+    }
+
+    @Override
+    public String toString() {
+        return "CRSPattern[" + nRows() + "x" + nCols + ", " + nNonZeroes() + " non-zeroes]";
+    }
+}
@@ -1,11 +1,6 @@
 package sm;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.Arrays;
 
 /**
  *
@@ -13,27 +8,25 @@ import java.util.Map;
  */
 public class HashSM implements SparseMatrix {
 
-    private final Map<Integer, Map<Integer, Double>> matrix;
+    private final SparseAccumulator matrix;
     private final int rows;
     private final int cols;
 
     public HashSM(int rows, int cols) {
         this.rows = rows;
         this.cols = cols;
-        this.matrix = new HashMap<>();
+        this.matrix = new SparseAccumulator(rows, cols);
+    }
+
+    public HashSM(int rows, int cols, int expectedNnz) {
+        this.rows = rows;
+        this.cols = cols;
+        this.matrix = new SparseAccumulator(rows, cols, expectedNnz);
     }
 
     public void addTo(int row, int col, double a) {
         // m[row,col] += a
-        if (!matrix.containsKey(row)) {
-            matrix.put(row, new HashMap<>());
-        }
-        Map<Integer, Double> rowentry = matrix.get(row);
-        if (rowentry.containsKey(col)) {
-            rowentry.put(col, rowentry.get(col) + a);
-        } else {
-            rowentry.put(col, a);
-        }
+        matrix.addTo(row, col, a);
     }
 
     @Override
@@ -48,67 +41,43 @@ public class HashSM implements SparseMatrix {
     
     @Override
     public int nNonZeroes() {
-        int result = 0;
-        for (Map.Entry<Integer, Map<Integer, Double>> rowEntry : matrix.entrySet()) {
-            result += rowEntry.getValue().size();
-        }
-        return result;
+        return matrix.size();
     }
 
     @Override
     public double get(int row, int col) {
-        if (matrix.containsKey(row)) {
-            Map<Integer, Double> rowEntry = matrix.get(row);
-            if (rowEntry.containsKey(col)) {
-                return rowEntry.get(col);
-            } else {
-                return 0.0;
-            }
-        } else {
-            return 0.0;
-        }
+        return matrix.get(row, col);
     }
 
+    @Override
     public void set(int row, int col, double value) {
-        matrix.computeIfAbsent(row, k -> new HashMap<>()).put(col, value);
+        matrix.set(row, col, value);
     }
 
     @Override
     public double[] multiply(double[] x) {
         double[] result = new double[rows];
-        for (Map.Entry<Integer, Map<Integer, Double>> rowEntry : matrix.entrySet()) {
-            int i = rowEntry.getKey();
-            for (Map.Entry<Integer, Double> colEntry : rowEntry.getValue().entrySet()) {
-                int j = colEntry.getKey();
-                result[i] += colEntry.getValue() * x[j];
-            }
-        }
+        matrix.forEach((i, j, v) -> result[i] += v * x[j]);
         return result;
     }
     
     
     @Override
     public void multiply(double[] x, double[] result) {
-        for (Map.Entry<Integer, Map<Integer, Double>> rowEntry : matrix.entrySet()) {
-            int i = rowEntry.getKey();
-            result[i] = 0.0;
-            for (Map.Entry<Integer, Double> colEntry : rowEntry.getValue().entrySet()) {
-                int j = colEntry.getKey();
-                result[i] += colEntry.getValue() * x[j];
-            }
-        }
+        Arrays.fill(result, 0, rows, 0.0);
+        matrix.forEach((i, j, v) -> result[i] += v * x[j]);
+    }
+
+    @Override
+    public void multiplyTransposed(double[] x, double[] result) {
+        Arrays.fill(result, 0, cols, 0.0);
+        matrix.forEach((i, j, v) -> result[j] += v * x[i]);
     }
 
     @Override
     public SparseMatrix transpose() {
-        HashSM transposed = new HashSM(cols, rows);
-        for (Map.Entry<Integer, Map<Integer, Double>> rowEntry : matrix.entrySet()) {
-            int i = rowEntry.getKey();
-            for (Map.Entry<Integer, Double> colEntry : rowEntry.getValue().entrySet()) {
-                int j = colEntry.getKey();
-                transposed.set(j, i, colEntry.getValue());
-            }
-        }
+        HashSM transposed = new HashSM(cols, rows, matrix.size());
+        matrix.forEach((i, j, v) -> transposed.set(j, i, v));
         return transposed;
     }
 
@@ -126,36 +95,7 @@ public class HashSM implements SparseMatrix {
     }
 
     public CRS toCRS() {
-        int[] ia = new int[rows + 1];
-        for (Map.Entry<Integer, Map<Integer, Double>> rowEntry : matrix.entrySet()) {
-            int i = rowEntry.getKey();
-            ia[i + 1] = rowEntry.getValue().size();
-        }
-        for (int i = 2; i <= rows; i++) {
-            ia[i] += ia[i - 1];
-        }
-        int nz = ia[rows];
-        int[] ja = new int[nz];
-        double[] a = new double[nz];
-        for (Map.Entry<Integer, Map<Integer, Double>> rowEntry : matrix.entrySet()) {
-            int i = rowEntry.getKey();
-            List<Map.Entry<Integer, Double>> row = new ArrayList<>(rowEntry.getValue().entrySet());
-
-            Collections.sort(row, new Comparator<Map.Entry<Integer, Double>>() {
-                @Override
-                public int compare(Map.Entry<Integer, Double> e1, Map.Entry<Integer, Double> e2) {
-                    return e1.getKey() - e2.getKey();
-                }
-            });
-            int j = ia[i];
-            for (Map.Entry<Integer, Double> e : row) {
-                ja[j] = e.getKey();
-                a[j] = e.getValue();
-                j++;
-            }
-        }
-
-        return new CRS(ia, ja, a);
+        return matrix.toCRS();
     }
 
     public static void main(String[] args) {
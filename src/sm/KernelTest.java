@@ -0,0 +1,199 @@
+package sm;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Checks of the fused and parallel kernels and of the other storage
+ * formats against the plain sequential CRS product, on random matrices.
+ *
+ * @author jstar
+ */
+public class KernelTest {
+
+    private static final java.util.Random rg = new java.util.Random();
+
+    public static CRS makeSymmetric(int n, int nzPerRow) {
+        COOBuilder coo = new COOBuilder(n, n);
+        COOBuilder.Batch b = coo.newBatch(2 * n * nzPerRow + n);
+        for (int i = 0; i < n; i++) {
+            for (int k = 0; k < nzPerRow; k++) {
+                int j = rg.nextInt(n);
+                double v = rg.nextDouble();
+                b.add(i, j, v);
+                b.add(j, i, v);
+            }
+            b.add(i, i, 2.0 * nzPerRow + 1.0);
+        }
+        return coo.build();
+    }
+
+    public static CRS makeRectangular(int rows, int cols, int maxRow) {
+        COOBuilder coo = new COOBuilder(rows, cols);
+        COOBuilder.Batch b = coo.newBatch(rows * maxRow / 2 + 1);
+        for (int i = 0; i < rows; i++) {
+            for (int k = rg.nextInt(maxRow + 1); k > 0; k--) {   // lengths vary, some rows are empty
+                b.add(i, rg.nextInt(cols), rg.nextDouble());
+            }
+        }
+        return coo.build();
+    }
+
+    private static double[] random(int n) {
+        double[] v = new double[n];
+        for (int i = 0; i < n; i++) {
+            v[i] = rg.nextDouble();
+        }
+        return v;
+    }
+
+    private static double maxDiff(double[] u, double[] v) {
+        double d = 0.0;
+        for (int i = 0; i < u.length; i++) {
+            d = Math.max(d, Math.abs(u[i] - v[i]));
+        }
+        return d;
+    }
+
+    private static double dot(double[] u, double[] v) {
+        double s = 0.0;
+        for (int i = 0; i < u.length; i++) {
+            s += u[i] * v[i];
+        }
+        return s;
+    }
+
+    private static double relDiff(double u, double v) {
+        return Math.abs(u - v) / Math.max(1.0, Math.abs(v));
+    }
+
+    private static void check(String what, double err, double tol) {
+        System.out.println(what + ": " + err + (err <= tol ? "" : "  <- FAILED"));
+    }
+
+    public static void main(String[] args) throws IOException {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        int threads = Parallel.getNoThreads();
+        Parallel.setNoThreads(Math.max(threads, 4));
+        CRS.setParallelThreshold(1000);
+
+        CRS c = makeSymmetric(n, 8);
+        double[] x = random(n), w = random(n), b = random(n);
+        double[] ax = new double[n];
+        c.setParallel(false);
+        c.multiply(x, ax);
+        double tol = 1e-10;
+
+        System.out.println("n=" + n + ", " + c.nNonZeroes() + " non-zeroes, " + Parallel.getNoThreads() + " threads");
+        SparseMatrix[] tested = {c, SymmetricCRS.upperOf(c)};
+        for (boolean par : new boolean[]{false, true}) {
+            for (SparseMatrix m : tested) {
+                if (m instanceof CRS crs) {
+                    crs.setParallel(par);
+                } else {
+                    ((SymmetricCRS) m).setParallel(par);
+                }
+                String name = m.getClass().getSimpleName() + (par ? " parallel" : " sequential");
+                double[] y = new double[n];
+                m.multiply(x, y);
+                check(name + " multiply", maxDiff(y, ax), tol);
+
+                double[] r = new double[n];
+                double rn = m.residual(b, x, r);
+                double[] bax = new double[n];
+                for (int i = 0; i < n; i++) {
+                    bax[i] = b[i] - ax[i];
+                }
+                check(name + " residual", Math.max(maxDiff(r, bax), relDiff(rn, Math.sqrt(dot(bax, bax)))), tol);
+
+                double d = m.multiplyDot(x, y, w);
+                check(name + " multiplyDot", Math.max(maxDiff(y, ax), relDiff(d, dot(w, ax))), tol);
+
+                double[] z = w.clone();
+                m.multiplyAdd(2.0, x, -1.0, z);
+                double[] ref = new double[n];
+                for (int i = 0; i < n; i++) {
+                    ref[i] = 2.0 * ax[i] - w[i];
+                }
+                check(name + " multiplyAdd", maxDiff(z, ref), tol);
+
+                m.multiplyTransposed(x, y);   // A is symmetric
+                check(name + " multiplyTransposed", maxDiff(y, ax), tol);
+            }
+        }
+
+        // SELL, square and rectangular, every kernel
+        CRS rect = makeRectangular(n, n / 3 + 1, 40);
+        for (CRS m : new CRS[]{c, rect}) {
+            m.setParallel(false);
+            double[] xm = random(m.nCols()), xt = random(m.nRows());
+            double[] ref = m.multiply(xm);
+            double[] refT = new double[m.nCols()];
+            m.multiplyTransposed(xt, refT);
+            for (int sliceHeight : new int[]{SELL.defaultSliceHeight(), 3}) {
+                SELL sell = new SELL(m, sliceHeight, 32 * sliceHeight);
+                String name = "SELL " + m.nRows() + "x" + m.nCols() + ", C=" + sliceHeight;
+                boolean shape = sell.nRows() == m.nRows() && sell.nCols() == m.nCols();
+                System.out.println(name + " shape: " + sell.nRows() + "x" + sell.nCols() + (shape ? "" : "  <- FAILED"));
+                boolean simd = SELL.isVectorized() && sliceHeight % SELL.defaultSliceHeight() == 0;
+                for (boolean par : new boolean[]{false, true}) {
+                    sell.setParallel(par);
+                    for (boolean vec : simd ? new boolean[]{false, true} : new boolean[]{false}) {
+                        sell.setVectorized(vec);
+                        check(name + (par ? " parallel" : " sequential") + (vec ? " SIMD" : " scalar")
+                                + " multiply", maxDiff(sell.multiply(xm), ref), tol);
+                    }
+                }
+                double[] yt = new double[m.nCols()];
+                sell.multiplyTransposed(xt, yt);
+                check(name + " multiplyTransposed", maxDiff(yt, refT), tol);
+                check(name + " toCRS", maxDiff(sell.toCRS().multiply(xm), ref), tol);
+            }
+        }
+
+        // OffHeapCRS in direct memory and mapped from a file
+        Path file = Files.createTempFile("offheap", ".bin");
+        try {
+            c.setParallel(false);
+            double[] refT = new double[n];
+            c.multiplyTransposed(w, refT);
+            int[] ia = c.getRowPointers(), ja = c.getColumnIndices();
+            double[] va = c.getValues();
+            try (OffHeapCRS o = OffHeapCRS.create(file, n, ia[n])) {
+                for (int i = 0; i <= n; i++) {
+                    o.setRowPointer(i, ia[i]);
+                }
+                for (int k = 0; k < ia[n]; k++) {
+                    o.setColumnIndex(k, ja[k]);
+                    o.setValue(k, va[k]);
+                }
+            }
+            try (OffHeapCRS direct = OffHeapCRS.of(c); OffHeapCRS mapped = OffHeapCRS.open(file, true)) {
+                for (OffHeapCRS o : new OffHeapCRS[]{direct, mapped}) {
+                    String name = "OffHeapCRS " + (o == direct ? "direct" : "mapped");
+                    for (boolean par : new boolean[]{false, true}) {
+                        o.setParallel(par);
+                        check(name + (par ? " parallel" : " sequential") + " multiply", maxDiff(o.multiply(x), ax), tol);
+                    }
+                    double[] yt = new double[n];
+                    o.multiplyTransposed(w, yt);
+                    check(name + " multiplyTransposed", maxDiff(yt, refT), tol);
+                }
+            }
+            try (FileChannel ch = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                ch.truncate(ch.size() - 8);
+            }
+            try (OffHeapCRS o = OffHeapCRS.open(file, true)) {
+                System.out.println("OffHeapCRS truncated file: accepted as " + o + "  <- FAILED");
+            } catch (IOException e) {
+                System.out.println("OffHeapCRS truncated file: " + e.getMessage());
+            }
+        } finally {
+            Files.delete(file);
+        }
+        Parallel.setNoThreads(threads);
+    }
+}
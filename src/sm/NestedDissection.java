@@ -0,0 +1,184 @@
+package sm;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * Fill reducing nested dissection ordering (George's automatic nested
+ * dissection): a breadth first level structure is grown from a
+ * pseudo-peripheral node, its middle level (only nodes adjacent to the next
+ * level) separates the graph in two parts, separators are numbered last and
+ * both parts are ordered the same way until they are small. On 2D meshes
+ * this gives O(n log n) fill in a Cholesky factor and a balanced
+ * elimination tree.
+ *
+ * A permutation is stored as perm[new] = old, like in RCM.
+ *
+ * @author jstar
+ */
+public class NestedDissection {
+
+    public static final int LEAF_SIZE = 64;
+
+    private NestedDissection() {
+    }
+
+    /**
+     * @return ND permutation (perm[new] = old) of the graph given by ia/ja,
+     * which should be structurally symmetric (diagonal entries are ignored)
+     */
+    public static int[] order(int[] ia, int[] ja) {
+        int n = ia.length - 1;
+        int[] perm = new int[n];
+        int[] part = new int[n];      // part[v]: subgraph of v, -1 once numbered
+        int[] level = new int[n];
+        Arrays.fill(level, -1);
+        int[] queue = new int[n];
+        int[] nodes = new int[n];
+        for (int i = 0; i < n; i++) {
+            nodes[i] = i;
+        }
+        int nParts = 1;
+        // subgraph: nodes[from..from+size) gets positions perm[from..from+size)
+        ArrayDeque<int[]> todo = new ArrayDeque<>();
+        todo.push(new int[]{0, n, 0});
+        while (!todo.isEmpty()) {
+            int[] t = todo.pop();
+            int from = t[0], size = t[1], id = t[2];
+            if (size <= LEAF_SIZE) {
+                for (int p = from; p < from + size; p++) {
+                    perm[p] = nodes[p];
+                    part[nodes[p]] = -1;
+                }
+                continue;
+            }
+            int root = pseudoPeripheral(ia, ja, part, id, nodes[from], level, queue);
+            int reached = levels(ia, ja, part, id, root, level, queue);
+            int idA = nParts++, idB = nParts++;
+            if (reached < size) {
+                // not connected: the component of root is one part, the rest another
+                for (int p = 0; p < reached; p++) {
+                    part[queue[p]] = idA;
+                }
+                clear(level, queue, reached);
+                for (int p = from; p < from + size; p++) {
+                    if (part[nodes[p]] == id) {
+                        part[nodes[p]] = idB;
+                    }
+                }
+                split(nodes, from, size, part, idA, idB, todo, perm);
+                continue;
+            }
+            int depth = level[queue[size - 1]];
+            if (depth < 2) {
+                // (almost) a clique, no separator: numbered as is
+                clear(level, queue, reached);
+                for (int p = from; p < from + size; p++) {
+                    perm[p] = nodes[p];
+                    part[nodes[p]] = -1;
+                }
+                continue;
+            }
+            // middle level: the first one reaching half of the nodes
+            int mid = 1, cnt = 0;
+            for (int p = 0; p < size; p++) {
+                cnt++;
+                if (cnt >= size / 2) {
+                    mid = Math.max(1, Math.min(depth - 1, level[queue[p]]));
+                    break;
+                }
+            }
+            for (int p = 0; p < size; p++) {
+                int v = queue[p];
+                int l = level[v];
+                if (l < mid) {
+                    part[v] = idA;
+                } else if (l > mid) {
+                    part[v] = idB;
+                } else {
+                    boolean sep = false;
+                    for (int k = ia[v]; k < ia[v + 1] && !sep; k++) {
+                        sep = level[ja[k]] == mid + 1;
+                    }
+                    part[v] = sep ? -2 : idA;
+                }
+            }
+            clear(level, queue, reached);
+            split(nodes, from, size, part, idA, idB, todo, perm);
+        }
+        return perm;
+    }
+
+    // reorders nodes[from..from+size) as part idA, part idB, separator (part -2, numbered now)
+    private static void split(int[] nodes, int from, int size, int[] part, int idA, int idB, ArrayDeque<int[]> todo, int[] perm) {
+        int[] tmp = new int[size];
+        int a = 0, b = 0;
+        for (int p = from; p < from + size; p++) {
+            if (part[nodes[p]] == idA) {
+                tmp[a++] = nodes[p];
+            }
+        }
+        for (int p = from; p < from + size; p++) {
+            if (part[nodes[p]] == idB) {
+                tmp[a + b++] = nodes[p];
+            }
+        }
+        int s = a + b;
+        for (int p = from; p < from + size; p++) {
+            int v = nodes[p];
+            if (part[v] == -2) {
+                part[v] = -1;
+                perm[from + s] = v;
+                tmp[s++] = v;
+            }
+        }
+        System.arraycopy(tmp, 0, nodes, from, size);
+        if (a > 0) {
+            todo.push(new int[]{from, a, idA});
+        }
+        if (b > 0) {
+            todo.push(new int[]{from + a, b, idB});
+        }
+    }
+
+    private static int pseudoPeripheral(int[] ia, int[] ja, int[] part, int id, int root, int[] level, int[] queue) {
+        int size = levels(ia, ja, part, id, root, level, queue);
+        int ecc = level[queue[size - 1]];
+        while (true) {
+            int best = queue[size - 1];
+            clear(level, queue, size);
+            size = levels(ia, ja, part, id, best, level, queue);
+            int e = level[queue[size - 1]];
+            clear(level, queue, size);
+            if (e <= ecc) {
+                return root;
+            }
+            root = best;
+            ecc = e;
+        }
+    }
+
+    // breadth first search from root inside subgraph id
+    private static int levels(int[] ia, int[] ja, int[] part, int id, int root, int[] level, int[] queue) {
+        int head = 0, tail = 0;
+        queue[tail++] = root;
+        level[root] = 0;
+        while (head < tail) {
+            int v = queue[head++];
+            for (int k = ia[v]; k < ia[v + 1]; k++) {
+                int w = ja[k];
+                if (level[w] < 0 && part[w] == id) {
+                    level[w] = level[v] + 1;
+                    queue[tail++] = w;
+                }
+            }
+        }
+        return tail;
+    }
+
+    private static void clear(int[] level, int[] queue, int size) {
+        for (int p = 0; p < size; p++) {
+            level[queue[p]] = -1;
+        }
+    }
+}
@@ -0,0 +1,375 @@
+package sm;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * CRS kept outside of the Java heap, in direct or memory-mapped buffers,
+ * with long row pointers, so the number of non-zeroes is not limited to
+ * 2^31 and the garbage collector never scans the matrix.
+ *
+ * Buffers are split into chunks of 2^27 elements (the NIO buffers are
+ * int-indexed). A mapped matrix lives in a file:
+ * header (magic, n, nnz), then ia (n+1 longs), ja (nnz ints), a (nnz
+ * doubles), all in native byte order.
+ *
+ * @author jstar
+ */
+public class OffHeapCRS implements SparseMatrix, AutoCloseable {
+
+    private static final long MAGIC = 0x534f435f4d45464aL;   // "JFEM_COS"
+    private static final int HEADER = 32;
+    private static final int SHIFT = 27;
+    private static final int CHUNK = 1 << SHIFT;
+    private static final int MASK = CHUNK - 1;
+
+    private final int n;
+    private final long nnz;
+    private LongBuffer[] ia;
+    private IntBuffer[] ja;
+    private DoubleBuffer[] a;
+    private List<MappedByteBuffer> mapped = new ArrayList<>();
+    private Boolean parallel;
+    private volatile int[] rowBlocks;   // cached split of the rows between tasks, dropped by setRowPointer
+
+    private OffHeapCRS(int n, long nnz) {
+        this.n = n;
+        this.nnz = nnz;
+    }
+
+    /**
+     * Empty (all zero) matrix in direct memory, to be filled with
+     * setRowPointer, setColumnIndex and setValue.
+     */
+    public static OffHeapCRS allocate(int n, long nnz) {
+        OffHeapCRS m = new OffHeapCRS(n, nnz);
+        m.ia = new LongBuffer[chunks(n + 1L)];
+        for (int c = 0; c < m.ia.length; c++) {
+            m.ia[c] = ByteBuffer.allocateDirect(8 * chunkLength(n + 1L, c)).order(ByteOrder.nativeOrder()).asLongBuffer();
+        }
+        m.ja = new IntBuffer[chunks(nnz)];
+        for (int c = 0; c < m.ja.length; c++) {
+            m.ja[c] = ByteBuffer.allocateDirect(4 * chunkLength(nnz, c)).order(ByteOrder.nativeOrder()).asIntBuffer();
+        }
+        m.a = new DoubleBuffer[chunks(nnz)];
+        for (int c = 0; c < m.a.length; c++) {
+            m.a[c] = ByteBuffer.allocateDirect(8 * chunkLength(nnz, c)).order(ByteOrder.nativeOrder()).asDoubleBuffer();
+        }
+        return m;
+    }
+
+    /**
+     * Copy of a heap CRS in direct memory.
+     */
+    public static OffHeapCRS of(CRS m) {
+        int[] mia = m.getRowPointers();
+        int[] mja = m.getColumnIndices();
+        double[] ma = m.getValues();
+        OffHeapCRS o = allocate(m.nRows(), mia[m.nRows()]);
+        for (int i = 0; i <= o.n; i++) {
+            o.setRowPointer(i, mia[i]);
+        }
+        for (int k = 0; k < mja.length; k++) {
+            o.setColumnIndex(k, mja[k]);
+            o.setValue(k, ma[k]);
+        }
+        return o;
+    }
+
+    /**
+     * Creates (or overwrites) file and maps an empty n x n matrix with nnz
+     * entries onto it. Changes are written back to the file.
+     */
+    public static OffHeapCRS create(Path file, int n, long nnz) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer h = ByteBuffer.allocate(HEADER).order(ByteOrder.nativeOrder());
+            h.putLong(MAGIC).putLong(n).putLong(nnz).putLong(0L).flip();
+            ch.write(h, 0);
+            OffHeapCRS m = new OffHeapCRS(n, nnz);
+            m.map(ch, FileChannel.MapMode.READ_WRITE);
+            return m;
+        }
+    }
+
+    /**
+     * Maps a matrix file written by create (or by a closed mapped matrix).
+     */
+    public static OffHeapCRS open(Path file, boolean readOnly) throws IOException {
+        try (FileChannel ch = readOnly ? FileChannel.open(file, StandardOpenOption.READ)
+                : FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer h = ByteBuffer.allocate(HEADER).order(ByteOrder.nativeOrder());
+            ch.read(h, 0);
+            h.flip();
+            if (h.remaining() < HEADER || h.getLong() != MAGIC) {
+                throw new IOException("OffHeapCRS: " + file + " is not a matrix file");
+            }
+            long n = h.getLong(), nnz = h.getLong();
+            if (n < 0 || n >= Integer.MAX_VALUE || nnz < 0 || nnz > Long.MAX_VALUE / 16) {
+                throw new IOException("OffHeapCRS: " + file + " has a corrupt header (n=" + n + ", nnz=" + nnz + ")");
+            }
+            long expected = fileLength((int) n, nnz);
+            if (ch.size() != expected) {
+                throw new IOException("OffHeapCRS: " + file + " has wrong length " + ch.size() + ", expected " + expected);
+            }
+            OffHeapCRS m = new OffHeapCRS((int) n, nnz);
+            m.map(ch, readOnly ? FileChannel.MapMode.READ_ONLY : FileChannel.MapMode.READ_WRITE);
+            return m;
+        }
+    }
+
+    // header, ia, ja, padding to 8 bytes, a - as laid out by map
+    private static long fileLength(int n, long nnz) {
+        return ((HEADER + 8L * (n + 1) + 4L * nnz + 7) & ~7L) + 8L * nnz;
+    }
+
+    private void map(FileChannel ch, FileChannel.MapMode mode) throws IOException {
+        long pos = HEADER;
+        ia = new LongBuffer[chunks(n + 1L)];
+        for (int c = 0; c < ia.length; c++) {
+            ia[c] = mapChunk(ch, mode, pos, 8L * chunkLength(n + 1L, c)).asLongBuffer();
+            pos += 8L * chunkLength(n + 1L, c);
+        }
+        ja = new IntBuffer[chunks(nnz)];
+        for (int c = 0; c < ja.length; c++) {
+            ja[c] = mapChunk(ch, mode, pos, 4L * chunkLength(nnz, c)).asIntBuffer();
+            pos += 4L * chunkLength(nnz, c);
+        }
+        pos = (pos + 7) & ~7L;
+        a = new DoubleBuffer[chunks(nnz)];
+        for (int c = 0; c < a.length; c++) {
+            a[c] = mapChunk(ch, mode, pos, 8L * chunkLength(nnz, c)).asDoubleBuffer();
+            pos += 8L * chunkLength(nnz, c);
+        }
+    }
+
+    private ByteBuffer mapChunk(FileChannel ch, FileChannel.MapMode mode, long pos, long size) throws IOException {
+        MappedByteBuffer b = ch.map(mode, pos, size);
+        mapped.add(b);
+        return b.order(ByteOrder.nativeOrder());
+    }
+
+    private static int chunks(long length) {
+        return (int) ((length + CHUNK - 1) >>> SHIFT);
+    }
+
+    private static int chunkLength(long length, int c) {
+        return (int) Math.min(CHUNK, length - ((long) c << SHIFT));
+    }
+
+    /**
+     * Writes mapped buffers back to the file and releases the buffers (the
+     * memory itself is returned when the buffers are collected).
+     */
+    @Override
+    public void close() {
+        for (MappedByteBuffer b : mapped) {
+            if (!b.isReadOnly()) {
+                b.force();
+            }
+        }
+        mapped.clear();
+        ia = null;
+        ja = null;
+        a = null;
+    }
+
+    public long getRowPointer(int i) {
+        return ia[i >>> SHIFT].get(i & MASK);
+    }
+
+    public void setRowPointer(int i, long k) {
+        ia[i >>> SHIFT].put(i & MASK, k);
+        if (rowBlocks != null) {
+            rowBlocks = null;
+        }
+    }
+
+    public int getColumnIndex(long k) {
+        return ja[(int) (k >>> SHIFT)].get((int) (k & MASK));
+    }
+
+    public void setColumnIndex(long k, int j) {
+        ja[(int) (k >>> SHIFT)].put((int) (k & MASK), j);
+    }
+
+    public double getValue(long k) {
+        return a[(int) (k >>> SHIFT)].get((int) (k & MASK));
+    }
+
+    public void setValue(long k, double v) {
+        a[(int) (k >>> SHIFT)].put((int) (k & MASK), v);
+    }
+
+    @Override
+    public int nRows() {
+        return n;
+    }
+
+    @Override
+    public int nCols() {
+        return n;
+    }
+
+    /**
+     * @throws ArithmeticException if there are more than 2^31-1 entries,
+     * see nNonZeroesLong
+     */
+    @Override
+    public int nNonZeroes() {
+        return Math.toIntExact(nnz);
+    }
+
+    public long nNonZeroesLong() {
+        return nnz;
+    }
+
+    public long indexOf(int i, int j) {
+        for (long k = getRowPointer(i); k < getRowPointer(i + 1); k++) {
+            if (getColumnIndex(k) == j) {
+                return k;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public double get(int i, int j) {
+        long k = indexOf(i, j);
+        return k < 0 ? 0.0 : getValue(k);
+    }
+
+    @Override
+    public void set(int i, int j, double value) {
+        long k = indexOf(i, j);
+        if (k >= 0) {
+            setValue(k, value);
+        } else if (value != 0.0) {
+            throw new IllegalArgumentException("OffHeapCRS: No entry A[" + i + "," + j + "]");
+        }
+    }
+
+    public void setParallel(boolean flag) {
+        parallel = flag;
+    }
+
+    public boolean isParallel() {
+        return parallel == null ? CRS.isDefaultParallel() : parallel;
+    }
+
+    @Override
+    public double[] multiply(double[] x) {
+        double[] r = new double[n];
+        multiply(x, r);
+        return r;
+    }
+
+    @Override
+    public void multiply(double[] x, double[] r) {
+        if (isParallel() && Parallel.getNoThreads() > 1 && nnz >= CRS.getParallelThreshold()) {
+            final int[] blocks = rowBlocks(4 * Parallel.getNoThreads());
+            Parallel.forEach(blocks.length - 1, t -> multiplyRows(x, r, blocks[t], blocks[t + 1]));
+        } else {
+            multiplyRows(x, r, 0, n);
+        }
+    }
+
+    private void multiplyRows(double[] x, double[] r, int from, int to) {
+        long k = getRowPointer(from);
+        for (int i = from; i < to; i++) {
+            long end = getRowPointer(i + 1);
+            double s = 0.0;
+            while (k < end) {
+                // walk the chunk holding k without re-computing the chunk for every entry
+                int c = (int) (k >>> SHIFT);
+                int o = (int) (k & MASK);
+                int last = (int) Math.min(CHUNK, end - ((long) c << SHIFT));
+                IntBuffer jc = ja[c];
+                DoubleBuffer ac = a[c];
+                for (; o < last; o++) {
+                    s += ac.get(o) * x[jc.get(o)];
+                }
+                k = ((long) c << SHIFT) + last;
+            }
+            r[i] = s;
+        }
+    }
+
+    // rows split so that every block holds about nnz/nParts entries, computed once
+    private int[] rowBlocks(int nParts) {
+        int[] blocks = rowBlocks;
+        if (blocks != null && blocks.length == nParts + 1) {
+            return blocks;
+        }
+        blocks = new int[nParts + 1];
+        for (int t = 1; t < nParts; t++) {
+            long target = nnz / nParts * t;
+            int lo = blocks[t - 1], hi = n;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (getRowPointer(mid) < target) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            blocks[t] = lo;
+        }
+        blocks[nParts] = n;
+        rowBlocks = blocks;
+        return blocks;
+    }
+
+    @Override
+    public void multiplyTransposed(double[] x, double[] result) {
+        Arrays.fill(result, 0, n, 0.0);
+        for (int i = 0; i < n; i++) {
+            double xi = x[i];
+            for (long k = getRowPointer(i); k < getRowPointer(i + 1); k++) {
+                result[getColumnIndex(k)] += getValue(k) * xi;
+            }
+        }
+    }
+
+    /**
+     * @return the transposed matrix in direct memory
+     */
+    @Override
+    public SparseMatrix transpose() {
+        OffHeapCRS t = allocate(n, nnz);
+        long[] next = new long[n + 1];
+        for (long k = 0; k < nnz; k++) {
+            next[getColumnIndex(k) + 1]++;
+        }
+        for (int j = 0; j < n; j++) {
+            next[j + 1] += next[j];
+        }
+        for (int j = 0; j <= n; j++) {
+            t.setRowPointer(j, next[j]);
+        }
+        for (int i = 0; i < n; i++) {
+            for (long k = getRowPointer(i); k < getRowPointer(i + 1); k++) {
+                long d = next[getColumnIndex(k)]++;
+                t.setColumnIndex(d, i);
+                t.setValue(d, getValue(k));
+            }
+        }
+        return t;
+    }
+
+    @Override
+    public String toString() {
+        return "OffHeapCRS[" + n + "x" + n + ", " + nnz + " non-zeroes]";
+    }
+}
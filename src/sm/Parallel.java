@@ -0,0 +1,129 @@
+package sm;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+
+/**
+ * Shared thread pool for the parallel kernels of package sm.
+ *
+ * @author jstar
+ */
+public final class Parallel {
+
+    private static final ThreadLocal<Partials> PARTIALS = ThreadLocal.withInitial(Partials::new);
+    private static volatile ForkJoinPool pool;
+    private static int nThreads = Runtime.getRuntime().availableProcessors();
+
+    private Parallel() {
+    }
+
+    public static int getNoThreads() {
+        return nThreads;
+    }
+
+    /**
+     * Sets the number of worker threads. A new pool replaces the old one,
+     * which is shut down only after that, so calls running on it finish.
+     */
+    public static synchronized void setNoThreads(int n) {
+        if (n < 1) {
+            throw new IllegalArgumentException("Parallel: number of threads must be positive");
+        }
+        if (n != nThreads) {
+            nThreads = n;
+            ForkJoinPool old = pool;
+            if (old != null) {
+                pool = new ForkJoinPool(n);
+                old.shutdown();
+            }
+        }
+    }
+
+    public static ForkJoinPool getPool() {
+        ForkJoinPool p = pool;
+        if (p == null) {
+            synchronized (Parallel.class) {
+                if (pool == null) {
+                    pool = new ForkJoinPool(nThreads);
+                }
+                p = pool;
+            }
+        }
+        return p;
+    }
+
+    /**
+     * Runs body.accept(t) for every t in [0,nTasks) and waits for all of them.
+     */
+    public static void forEach(int nTasks, IntConsumer body) {
+        if (nTasks <= 1 || nThreads == 1) {
+            for (int t = 0; t < nTasks; t++) {
+                body.accept(t);
+            }
+            return;
+        }
+        getPool().invoke(new RangeTask(0, nTasks, body));
+    }
+
+    /**
+     * Buffer (at least len long) for the partial sums of a parallel
+     * reduction, kept per calling thread and grown on demand; give it back
+     * by releasePartials. A nested reduction on the same thread (a pool
+     * worker running another one while it waits) gets a fresh array.
+     */
+    public static double[] takePartials(int len) {
+        return PARTIALS.get().take(len);
+    }
+
+    public static void releasePartials(double[] part) {
+        PARTIALS.get().release(part);
+    }
+
+    private static final class Partials {
+
+        private double[] buf = new double[0];
+        private boolean busy;
+
+        double[] take(int len) {
+            if (busy) {
+                return new double[len];
+            }
+            if (buf.length < len) {
+                buf = new double[len];
+            }
+            busy = true;
+            return buf;
+        }
+
+        void release(double[] part) {
+            if (part == buf) {
+                busy = false;
+            }
+        }
+    }
+
+    private static class RangeTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int from, to;
+        private final transient IntConsumer body;
+
+        RangeTask(int from, int to, IntConsumer body) {
+            this.from = from;
+            this.to = to;
+            this.body = body;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                body.accept(from);
+            } else {
+                int mid = (from + to) >>> 1;
+                invokeAll(new RangeTask(from, mid, body), new RangeTask(mid, to, body));
+            }
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package sm;
+
+import java.util.Arrays;
+
+/**
+ * Reverse Cuthill-McKee ordering of the (symmetrized) graph of a sparse
+ * matrix, started from pseudo-peripheral nodes (George-Liu).
+ *
+ * A permutation is stored as perm[new] = old.
+ *
+ * @author jstar
+ */
+public class RCM {
+
+    private RCM() {
+    }
+
+    public static int[] order(CRS m) {
+        return order(m.getRowPointers(), m.getColumnIndices());
+    }
+
+    /**
+     * @return RCM permutation (perm[new] = old) of the graph given by ia/ja,
+     * which should be structurally symmetric
+     */
+    public static int[] order(int[] ia, int[] ja) {
+        int n = ia.length - 1;
+        int[] degree = new int[n];
+        for (int i = 0; i < n; i++) {
+            degree[i] = ia[i + 1] - ia[i];
+        }
+        int[] perm = new int[n];
+        boolean[] numbered = new boolean[n];
+        int[] level = new int[n];
+        Arrays.fill(level, -1);
+        int[] tmp = new int[n];
+        int next = 0;
+        for (int i = 0; i < n; i++) {
+            if (numbered[i]) {
+                continue;
+            }
+            int start = pseudoPeripheral(ia, ja, degree, i, level, tmp);
+            // Cuthill-McKee: breadth first, neighbours by increasing degree
+            int head = next;
+            perm[next++] = start;
+            numbered[start] = true;
+            while (head < next) {
+                int v = perm[head++];
+                int first = next;
+                for (int k = ia[v]; k < ia[v + 1]; k++) {
+                    int w = ja[k];
+                    if (!numbered[w]) {
+                        numbered[w] = true;
+                        perm[next++] = w;
+                    }
+                }
+                for (int p = first + 1; p < next; p++) {
+                    int w = perm[p];
+                    int q = p - 1;
+                    while (q >= first && degree[perm[q]] > degree[w]) {
+                        perm[q + 1] = perm[q];
+                        q--;
+                    }
+                    perm[q + 1] = w;
+                }
+            }
+        }
+        for (int p = 0, q = n - 1; p < q; p++, q--) {
+            int t = perm[p];
+            perm[p] = perm[q];
+            perm[q] = t;
+        }
+        return perm;
+    }
+
+    // node of the component of root with (almost) maximal eccentricity
+    private static int pseudoPeripheral(int[] ia, int[] ja, int[] degree, int root, int[] level, int[] queue) {
+        int size = levels(ia, ja, root, level, queue);
+        int ecc = level[queue[size - 1]];
+        while (true) {
+            int best = -1;
+            for (int p = 0; p < size; p++) {
+                int v = queue[p];
+                if (level[v] == ecc && (best < 0 || degree[v] < degree[best])) {
+                    best = v;
+                }
+            }
+            clear(level, queue, size);
+            size = levels(ia, ja, best, level, queue);
+            int e = level[queue[size - 1]];
+            if (e <= ecc) {
+                clear(level, queue, size);
+                return root;
+            }
+            root = best;
+            ecc = e;
+        }
+    }
+
+    // breadth first search from root: visited nodes in queue, distances in level (-1 = not visited)
+    private static int levels(int[] ia, int[] ja, int root, int[] level, int[] queue) {
+        int head = 0, tail = 0;
+        queue[tail++] = root;
+        level[root] = 0;
+        while (head < tail) {
+            int v = queue[head++];
+            for (int k = ia[v]; k < ia[v + 1]; k++) {
+                int w = ja[k];
+                if (level[w] < 0) {
+                    level[w] = level[v] + 1;
+                    queue[tail++] = w;
+                }
+            }
+        }
+        return tail;
+    }
+
+    private static void clear(int[] level, int[] queue, int size) {
+        for (int p = 0; p < size; p++) {
+            level[queue[p]] = -1;
+        }
+    }
+
+    /**
+     * @return inverse permutation: inv[old] = new
+     */
+    public static int[] inverse(int[] perm) {
+        int[] inv = new int[perm.length];
+        for (int i = 0; i < perm.length; i++) {
+            inv[perm[i]] = i;
+        }
+        return inv;
+    }
+
+    /**
+     * @return v in the new numbering: result[new] = v[perm[new]]
+     */
+    public static double[] permute(double[] v, int[] perm) {
+        double[] r = new double[perm.length];
+        for (int i = 0; i < perm.length; i++) {
+            r[i] = v[perm[i]];
+        }
+        return r;
+    }
+
+    /**
+     * @return v in the original numbering: result[perm[new]] = v[new]
+     */
+    public static double[] unpermute(double[] v, int[] perm) {
+        double[] r = new double[perm.length];
+        for (int i = 0; i < perm.length; i++) {
+            r[perm[i]] = v[i];
+        }
+        return r;
+    }
+
+    /**
+     * @return max |i-j| over stored entries
+     */
+    public static int bandwidth(CRS m) {
+        int[] ia = m.getRowPointers();
+        int[] ja = m.getColumnIndices();
+        int bw = 0;
+        for (int i = 0; i < ia.length - 1; i++) {
+            for (int k = ia[i]; k < ia[i + 1]; k++) {
+                bw = Math.max(bw, Math.abs(i - ja[k]));
+            }
+        }
+        return bw;
+    }
+}
@@ -0,0 +1,318 @@
+package sm;
+
+import java.util.Arrays;
+
+/**
+ * Sliced ELLPACK (SELL-C-sigma) matrix. Rows are sorted by length within
+ * windows of sigma rows and grouped into slices of C rows; a slice is
+ * padded to its longest row and stored column-major, so the C rows of a
+ * slice are multiplied in SIMD lanes.
+ *
+ * The SpMV kernel uses the jdk.incubator.vector module when it is present
+ * (run with --add-modules jdk.incubator.vector), scalar code otherwise.
+ *
+ * @author jstar
+ */
+public class SELL implements SparseMatrix {
+
+    /**
+     * SpMV over slices fromSlice .. toSlice-1.
+     */
+    interface Kernel {
+
+        void multiply(SELL m, double[] x, double[] y, int fromSlice, int toSlice);
+
+        int lanes();
+    }
+
+    private static final Kernel SCALAR = new Kernel() {
+        @Override
+        public void multiply(SELL m, double[] x, double[] y, int fromSlice, int toSlice) {
+            m.multiplyScalar(x, y, fromSlice, toSlice);
+        }
+
+        @Override
+        public int lanes() {
+            return 1;
+        }
+    };
+
+    private static final Kernel VECTOR = loadVectorKernel();
+
+    final int n;
+    final int nCols;
+    final int C;
+    final int nnz;
+    final int[] sliceStart;   // slice s occupies positions sliceStart[s] .. sliceStart[s+1]-1, width = (end-start)/C
+    final int[] col;          // padding points to column 0 with value 0
+    final double[] val;
+    final int[] perm;         // perm[p] = original row stored at position p, -1 for padding rows
+    private final int[] invPerm;
+    private final int[] rowLen;   // by position
+    private Boolean parallel;
+    private boolean useVector = true;
+    private volatile int[] sliceBlocks;   // cached split of the slices between tasks
+
+    private static Kernel loadVectorKernel() {
+        try {
+            if (ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+                return (Kernel) Class.forName("sm.SELLVectorKernel").getDeclaredConstructor().newInstance();
+            }
+        } catch (ReflectiveOperationException | LinkageError e) {
+        }
+        return null;
+    }
+
+    /**
+     * @return true if the SIMD kernel is available in this JVM
+     */
+    public static boolean isVectorized() {
+        return VECTOR != null;
+    }
+
+    /**
+     * Slice height matching the SIMD width (8 when SIMD is not available).
+     */
+    public static int defaultSliceHeight() {
+        return VECTOR != null ? VECTOR.lanes() : 8;
+    }
+
+    public SELL(CRS m) {
+        this(m, defaultSliceHeight(), 32 * defaultSliceHeight());
+    }
+
+    /**
+     * @param C slice height
+     * @param sigma sorting window (rows are sorted by length within
+     * consecutive windows of sigma rows), 1 = no sorting
+     */
+    public SELL(CRS m, int C, int sigma) {
+        if (C < 1 || sigma < 1) {
+            throw new IllegalArgumentException("SELL: C and sigma must be positive");
+        }
+        int[] ia = m.getRowPointers();
+        int[] ja = m.getColumnIndices();
+        double[] a = m.getValues();
+        this.n = m.nRows();
+        this.nCols = m.nCols();
+        this.C = C;
+        this.nnz = ia[n];
+        int nSlices = (n + C - 1) / C;
+        int nPos = nSlices * C;
+
+        perm = new int[nPos];
+        Arrays.fill(perm, -1);
+        Integer[] window = new Integer[Math.min(sigma, Math.max(n, 1))];
+        for (int w0 = 0; w0 < n; w0 += sigma) {
+            int w1 = Math.min(n, w0 + sigma);
+            for (int i = w0; i < w1; i++) {
+                window[i - w0] = i;
+            }
+            Arrays.sort(window, 0, w1 - w0, (p, q) -> (ia[q + 1] - ia[q]) - (ia[p + 1] - ia[p]));
+            for (int i = w0; i < w1; i++) {
+                perm[i] = window[i - w0];
+            }
+        }
+        invPerm = new int[n];
+        rowLen = new int[nPos];
+        for (int p = 0; p < n; p++) {
+            invPerm[perm[p]] = p;
+            rowLen[p] = ia[perm[p] + 1] - ia[perm[p]];
+        }
+
+        sliceStart = new int[nSlices + 1];
+        for (int s = 0; s < nSlices; s++) {
+            int width = 0;
+            for (int p = s * C; p < (s + 1) * C; p++) {
+                width = Math.max(width, rowLen[p]);
+            }
+            sliceStart[s + 1] = sliceStart[s] + width * C;
+        }
+        col = new int[sliceStart[nSlices]];
+        val = new double[col.length];
+        for (int s = 0; s < nSlices; s++) {
+            for (int r = 0; r < C; r++) {
+                int p = s * C + r;
+                if (perm[p] < 0) {
+                    continue;
+                }
+                int k = ia[perm[p]];
+                for (int j = 0; j < rowLen[p]; j++) {
+                    col[sliceStart[s] + j * C + r] = ja[k + j];
+                    val[sliceStart[s] + j * C + r] = a[k + j];
+                }
+            }
+        }
+    }
+
+    public int getSliceHeight() {
+        return C;
+    }
+
+    /**
+     * @return number of stored entries including padding
+     */
+    public int nStored() {
+        return val.length;
+    }
+
+    @Override
+    public int nRows() {
+        return n;
+    }
+
+    @Override
+    public int nCols() {
+        return nCols;
+    }
+
+    @Override
+    public int nNonZeroes() {
+        return nnz;
+    }
+
+    private int indexOf(int i, int j) {
+        int p = invPerm[i];
+        int base = sliceStart[p / C] + p % C;
+        for (int k = 0; k < rowLen[p]; k++) {
+            if (col[base + k * C] == j) {
+                return base + k * C;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public double get(int i, int j) {
+        int k = indexOf(i, j);
+        return k < 0 ? 0.0 : val[k];
+    }
+
+    @Override
+    public void set(int i, int j, double value) {
+        int k = indexOf(i, j);
+        if (k >= 0) {
+            val[k] = value;
+        } else if (value != 0.0) {
+            throw new IllegalArgumentException("SELL: No entry A[" + i + "," + j + "]");
+        }
+    }
+
+    public void setParallel(boolean flag) {
+        parallel = flag;
+    }
+
+    public boolean isParallel() {
+        return parallel == null ? CRS.isDefaultParallel() : parallel;
+    }
+
+    /**
+     * Allows to switch the SIMD kernel off (e.g. for comparison).
+     */
+    public void setVectorized(boolean flag) {
+        useVector = flag;
+    }
+
+    private Kernel kernel() {
+        return useVector && VECTOR != null && C % VECTOR.lanes() == 0 ? VECTOR : SCALAR;
+    }
+
+    @Override
+    public double[] multiply(double[] x) {
+        double[] r = new double[n];
+        multiply(x, r);
+        return r;
+    }
+
+    @Override
+    public void multiply(double[] x, double[] r) {
+        final Kernel k = kernel();
+        final int nSlices = sliceStart.length - 1;
+        if (isParallel() && Parallel.getNoThreads() > 1 && val.length >= CRS.getParallelThreshold()) {
+            final int[] blocks = sliceBlocks(4 * Parallel.getNoThreads());
+            Parallel.forEach(blocks.length - 1, t -> k.multiply(this, x, r, blocks[t], blocks[t + 1]));
+        } else {
+            k.multiply(this, x, r, 0, nSlices);
+        }
+    }
+
+    private int[] sliceBlocks(int nParts) {
+        int[] blocks = sliceBlocks;
+        if (blocks == null || blocks.length != nParts + 1) {
+            blocks = CRS.balancedRowBlocks(sliceStart, nParts);
+            sliceBlocks = blocks;
+        }
+        return blocks;
+    }
+
+    // row by row inside a slice (stride C), the slice stays in cache between its rows
+    void multiplyScalar(double[] x, double[] y, int fromSlice, int toSlice) {
+        for (int s = fromSlice; s < toSlice; s++) {
+            int end = sliceStart[s + 1];
+            for (int r = 0; r < C; r++) {
+                int i = perm[s * C + r];
+                if (i < 0) {
+                    continue;
+                }
+                double sum = 0.0;
+                for (int k = sliceStart[s] + r; k < end; k += C) {
+                    sum += val[k] * x[col[k]];
+                }
+                y[i] = sum;
+            }
+        }
+    }
+
+    @Override
+    public void multiplyTransposed(double[] x, double[] result) {
+        Arrays.fill(result, 0, nCols, 0.0);
+        for (int s = 0; s < sliceStart.length - 1; s++) {
+            for (int r = 0; r < C; r++) {
+                int p = s * C + r;
+                if (perm[p] < 0) {
+                    continue;
+                }
+                double xi = x[perm[p]];
+                for (int j = 0; j < rowLen[p]; j++) {
+                    int k = sliceStart[s] + j * C + r;
+                    result[col[k]] += val[k] * xi;
+                }
+            }
+        }
+    }
+
+    @Override
+    public SparseMatrix transpose() {
+        return new SELL((CRS) toCRS().transpose(), C, 32 * C);
+    }
+
+    public CRS toCRS() {
+        int[] ia = new int[n + 1];
+        for (int i = 0; i < n; i++) {
+            ia[i + 1] = ia[i] + rowLen[invPerm[i]];
+        }
+        int[] ja = new int[nnz];
+        double[] a = new double[nnz];
+        for (int i = 0; i < n; i++) {
+            int p = invPerm[i];
+            int base = sliceStart[p / C] + p % C;
+            for (int j = 0; j < rowLen[p]; j++) {
+                ja[ia[i] + j] = col[base + j * C];
+                a[ia[i] + j] = val[base + j * C];
+            }
+        }
+        return new CRS(new CRSPattern(ia, ja, nCols), a);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder ret = new StringBuilder();
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < nCols; j++) {
+                ret.append(get(i, j)).append(" ");
+            }
+            ret.append("\n");
+        }
+        return ret.toString();
+    }
+}
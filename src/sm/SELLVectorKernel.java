@@ -0,0 +1,52 @@
+package sm;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * SIMD SpMV kernel for SELL, loaded by SELL only when jdk.incubator.vector
+ * is present. One vector covers lanes() rows of a slice; x is gathered
+ * through the column indices.
+ *
+ * @author jstar
+ */
+class SELLVectorKernel implements SELL.Kernel {
+
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    @Override
+    public int lanes() {
+        return SPECIES.length();
+    }
+
+    @Override
+    public void multiply(SELL m, double[] x, double[] y, int fromSlice, int toSlice) {
+        final int C = m.C;
+        final int L = SPECIES.length();
+        final int[] sliceStart = m.sliceStart;
+        final int[] col = m.col;
+        final double[] val = m.val;
+        final int[] perm = m.perm;
+        for (int s = fromSlice; s < toSlice; s++) {
+            boolean full = perm[s * C + C - 1] >= 0;   // only the last slice can contain padding rows
+            for (int r0 = 0; r0 < C; r0 += L) {
+                DoubleVector acc = DoubleVector.zero(SPECIES);
+                for (int k = sliceStart[s] + r0; k < sliceStart[s + 1]; k += C) {
+                    DoubleVector v = DoubleVector.fromArray(SPECIES, val, k);
+                    DoubleVector xv = DoubleVector.fromArray(SPECIES, x, 0, col, k);
+                    acc = v.fma(xv, acc);
+                }
+                if (full) {
+                    acc.intoArray(y, 0, perm, s * C + r0);
+                } else {
+                    for (int r = 0; r < L; r++) {
+                        int i = perm[s * C + r0 + r];
+                        if (i >= 0) {
+                            y[i] = acc.lane(r);
+                        }
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package sm;
+
+import java.util.Arrays;
+
+/**
+ * Sparse matrix-matrix product C = A B of CRS matrices, split into a
+ * symbolic phase (structure of C) and a numeric phase (values of C).
+ *
+ * A plan made for the patterns of A and B computes the values of any
+ * product of matrices sharing these patterns, so repeated products (time
+ * steps, changing materials) only redo the numeric part. Both phases run
+ * in parallel by row blocks, every thread with its own dense accumulator.
+ *
+ * @author jstar
+ */
+public class SpGEMM {
+
+    private final CRSPattern pa;
+    private final CRSPattern pb;
+    private final CRSPattern pc;
+    private double[][] acc;   // per thread accumulators, length pb.nCols()
+
+    /**
+     * Symbolic phase: structure of A B (rows sorted by column).
+     */
+    public SpGEMM(CRSPattern pa, CRSPattern pb) {
+        if (pa.nCols() != pb.nRows()) {
+            throw new IllegalArgumentException("SpGEMM: can't multiply " + pa.nRows() + "x" + pa.nCols() + " by " + pb.nRows() + "x" + pb.nCols());
+        }
+        this.pa = pa;
+        this.pb = pb;
+        this.pc = symbolic(pa, pb);
+    }
+
+    public static CRS product(CRS a, CRS b) {
+        return new SpGEMM(a.getPattern(), b.getPattern()).multiply(a, b);
+    }
+
+    /**
+     * @return structure of the product
+     */
+    public CRSPattern getPattern() {
+        return pc;
+    }
+
+    /**
+     * Numeric phase into a new matrix with the pattern of the plan.
+     */
+    public CRS multiply(CRS a, CRS b) {
+        CRS c = new CRS(pc);
+        multiply(a, b, c);
+        return c;
+    }
+
+    /**
+     * Numeric phase: overwrites the values of c (which must use the pattern
+     * of the plan).
+     */
+    public synchronized void multiply(CRS a, CRS b, CRS c) {
+        if (a.getPattern() != pa || b.getPattern() != pb || c.getPattern() != pc) {
+            throw new IllegalArgumentException("SpGEMM: matrices do not use the patterns of this plan");
+        }
+        final int nt = nThreads(pc.nNonZeroes());
+        final int nc = pb.nCols();
+        if (acc == null || acc.length != nt) {
+            acc = new double[nt][];
+        }
+        final int[] aia = pa.getRowPointers(), aja = pa.getColumnIndices();
+        final int[] bia = pb.getRowPointers(), bja = pb.getColumnIndices();
+        final int[] cia = pc.getRowPointers(), cja = pc.getColumnIndices();
+        final double[] av = a.getValues(), bv = b.getValues(), cv = c.getValues();
+        final int[] blocks = CRS.balancedRowBlocks(cia, nt);
+        Parallel.forEach(nt, t -> {
+            if (acc[t] == null) {
+                acc[t] = new double[nc];
+            }
+            double[] w = acc[t];
+            for (int i = blocks[t]; i < blocks[t + 1]; i++) {
+                for (int k = aia[i]; k < aia[i + 1]; k++) {
+                    double aik = av[k];
+                    int r = aja[k];
+                    for (int q = bia[r]; q < bia[r + 1]; q++) {
+                        w[bja[q]] += aik * bv[q];
+                    }
+                }
+                for (int p = cia[i]; p < cia[i + 1]; p++) {
+                    cv[p] = w[cja[p]];
+                    w[cja[p]] = 0.0;
+                }
+            }
+        });
+    }
+
+    private static int nThreads(long work) {
+        return work >= CRS.getParallelThreshold() ? Parallel.getNoThreads() : 1;
+    }
+
+    // count, prefix sum, fill: a row of C is the union of the rows of B selected by row i of A
+    private static CRSPattern symbolic(CRSPattern pa, CRSPattern pb) {
+        final int n = pa.nRows();
+        final int nc = pb.nCols();
+        final int[] aia = pa.getRowPointers(), aja = pa.getColumnIndices();
+        final int[] bia = pb.getRowPointers(), bja = pb.getColumnIndices();
+        final int nt = nThreads(pa.nNonZeroes());
+        final int[] blocks = CRS.balancedRowBlocks(aia, nt);
+        final int[][] marker = new int[nt][];
+        final int[] cia = new int[n + 1];
+        Parallel.forEach(nt, t -> {
+            int[] mark = marker[t] = new int[nc];
+            Arrays.fill(mark, -1);
+            for (int i = blocks[t]; i < blocks[t + 1]; i++) {
+                int cnt = 0;
+                for (int k = aia[i]; k < aia[i + 1]; k++) {
+                    int r = aja[k];
+                    for (int q = bia[r]; q < bia[r + 1]; q++) {
+                        if (mark[bja[q]] != i) {
+                            mark[bja[q]] = i;
+                            cnt++;
+                        }
+                    }
+                }
+                cia[i + 1] = cnt;
+            }
+        });
+        for (int i = 0; i < n; i++) {
+            cia[i + 1] += cia[i];
+        }
+        final int[] cja = new int[cia[n]];
+        Parallel.forEach(nt, t -> {
+            int[] mark = marker[t];
+            Arrays.fill(mark, -1);
+            for (int i = blocks[t]; i < blocks[t + 1]; i++) {
+                int p = cia[i];
+                for (int k = aia[i]; k < aia[i + 1]; k++) {
+                    int r = aja[k];
+                    for (int q = bia[r]; q < bia[r + 1]; q++) {
+                        if (mark[bja[q]] != i) {
+                            mark[bja[q]] = i;
+                            cja[p++] = bja[q];
+                        }
+                    }
+                }
+                Arrays.sort(cja, cia[i], cia[i + 1]);
+            }
+        });
+        return new CRSPattern(cia, cja, nc);
+    }
+
+    public static void main(String[] args) {
+        int n = 6;
+        HashSM m = new HashSM(n, n);
+        java.util.Random r = new java.util.Random();
+        for (int k = 0; k < n; k++) {
+            m.set(k, k, 2.0);
+            m.set(r.nextInt(n), r.nextInt(n), 1.0);
+        }
+        CRS a = m.toCRS();
+        System.out.println(a);
+        SpGEMM plan = new SpGEMM(a.getPattern(), a.getPattern());
+        System.out.println(plan.multiply(a, a));
+        a.getValues()[0] = 10.0;
+        System.out.println(plan.multiply(a, a));
+    }
+}
@@ -0,0 +1,195 @@
+package sm;
+
+import java.util.Arrays;
+
+/**
+ * Sparse matrix builder keeping entries in a primitive open-addressing hash
+ * table: key = row&lt;&lt;32 | col, linear probing, no boxing.
+ *
+ * @author jstar
+ */
+public class SparseAccumulator {
+
+    private static final long EMPTY = -1L;
+    private static final double MAX_LOAD = 0.7;
+    private static final int MAX_CAPACITY = 1 << 30;
+
+    private final int rows;
+    private final int cols;
+    private long[] keys;
+    private double[] vals;
+    private int size;
+    private int mask;
+    private int shift;
+    private int resizeAt;
+
+    public interface EntryConsumer {
+
+        void accept(int row, int col, double value);
+    }
+
+    public SparseAccumulator(int rows, int cols) {
+        this(rows, cols, 16);
+    }
+
+    public SparseAccumulator(int rows, int cols, int expectedNnz) {
+        this.rows = rows;
+        this.cols = cols;
+        allocate(tableSizeFor(expectedNnz));
+    }
+
+    private static int tableSizeFor(int nnz) {
+        long needed = (long) Math.ceil(Math.max(nnz, 8) / MAX_LOAD);
+        if (needed > MAX_CAPACITY) {
+            throw new IllegalArgumentException("SparseAccumulator: too many entries: " + nnz);
+        }
+        return Integer.highestOneBit((int) needed - 1) << 1;
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        Arrays.fill(keys, EMPTY);
+        vals = new double[capacity];
+        mask = capacity - 1;
+        shift = 64 - Integer.numberOfTrailingZeros(capacity);
+        resizeAt = (int) (capacity * MAX_LOAD);
+    }
+
+    public int nRows() {
+        return rows;
+    }
+
+    public int nCols() {
+        return cols;
+    }
+
+    /**
+     * @return number of stored entries
+     */
+    public int size() {
+        return size;
+    }
+
+    private long key(int row, int col) {
+        if (row < 0 || row >= rows || col < 0 || col >= cols) {
+            throw new IllegalArgumentException("SparseAccumulator: no entry A[" + row + "," + col + "] in " + rows + "x" + cols + " matrix");
+        }
+        return ((long) row << 32) | col;
+    }
+
+    private int slot(long key) {
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> shift);
+    }
+
+    // position of key or of the empty slot where it should be inserted
+    private int find(long key) {
+        int s = slot(key);
+        while (keys[s] != EMPTY && keys[s] != key) {
+            s = (s + 1) & mask;
+        }
+        return s;
+    }
+
+    private int insert(long key) {
+        int s = find(key);
+        if (keys[s] == EMPTY) {
+            if (size >= resizeAt) {
+                grow();
+                s = find(key);
+            }
+            keys[s] = key;
+            vals[s] = 0.0;
+            size++;
+        }
+        return s;
+    }
+
+    private void grow() {
+        if (keys.length >= MAX_CAPACITY) {
+            throw new IllegalStateException("SparseAccumulator: table full (" + size + " entries)");
+        }
+        long[] oldKeys = keys;
+        double[] oldVals = vals;
+        allocate(keys.length << 1);
+        for (int s = 0; s < oldKeys.length; s++) {
+            if (oldKeys[s] != EMPTY) {
+                int t = find(oldKeys[s]);
+                keys[t] = oldKeys[s];
+                vals[t] = oldVals[s];
+            }
+        }
+    }
+
+    public void addTo(int row, int col, double a) {
+        int s = insert(key(row, col));   // may replace vals
+        vals[s] += a;
+    }
+
+    public void set(int row, int col, double value) {
+        int s = insert(key(row, col));
+        vals[s] = value;
+    }
+
+    public double get(int row, int col) {
+        int s = find(key(row, col));
+        return keys[s] == EMPTY ? 0.0 : vals[s];
+    }
+
+    public void clear() {
+        Arrays.fill(keys, EMPTY);
+        size = 0;
+    }
+
+    /**
+     * Visits all stored entries in unspecified order.
+     */
+    public void forEach(EntryConsumer c) {
+        for (int s = 0; s < keys.length; s++) {
+            long k = keys[s];
+            if (k != EMPTY) {
+                c.accept((int) (k >>> 32), (int) k, vals[s]);
+            }
+        }
+    }
+
+    /**
+     * Converts to CRS by a two-pass radix (counting) sort: first by column,
+     * then - stably - by row, so every CRS row ends up ordered by column.
+     */
+    public CRS toCRS() {
+        int nnz = size;
+        int[] byCol = new int[nnz];   // table slots ordered by column
+        int[] count = new int[Math.max(rows, cols) + 1];
+        for (int s = 0; s < keys.length; s++) {
+            if (keys[s] != EMPTY) {
+                count[(int) keys[s] + 1]++;
+            }
+        }
+        for (int j = 0; j < cols; j++) {
+            count[j + 1] += count[j];
+        }
+        for (int s = 0; s < keys.length; s++) {
+            if (keys[s] != EMPTY) {
+                byCol[count[(int) keys[s]]++] = s;
+            }
+        }
+
+        int[] ia = new int[rows + 1];
+        for (int s : byCol) {
+            ia[(int) (keys[s] >>> 32) + 1]++;
+        }
+        for (int i = 0; i < rows; i++) {
+            ia[i + 1] += ia[i];
+        }
+        int[] next = count;
+        System.arraycopy(ia, 0, next, 0, rows);
+        int[] ja = new int[nnz];
+        double[] a = new double[nnz];
+        for (int s : byCol) {
+            int k = next[(int) (keys[s] >>> 32)]++;
+            ja[k] = (int) keys[s];
+            a[k] = vals[s];
+        }
+        return new CRS(new CRSPattern(ia, ja, cols), a);
+    }
+}
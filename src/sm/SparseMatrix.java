@@ -12,5 +12,75 @@ public interface SparseMatrix {
     public void set(int i, int j, double value );
     public double[] multiply(double[] x);
     public void multiply(double[] x, double[] result);
+    public void multiplyTransposed(double[] x, double[] result);
+
+    /**
+     * Y = A X for k vectors stored interleaved: X[j*k + c] is entry j of
+     * vector c (row-major n x k). Implementations should read the matrix
+     * once for all k vectors; this default just multiplies column by column.
+     */
+    default void multiply(double[] X, double[] Y, int k) {
+        int n = nRows();
+        double[] x = new double[nCols()];
+        double[] y = new double[n];
+        for (int c = 0; c < k; c++) {
+            for (int j = 0; j < x.length; j++) {
+                x[j] = X[j * k + c];
+            }
+            multiply(x, y);
+            for (int i = 0; i < n; i++) {
+                Y[i * k + c] = y[i];
+            }
+        }
+    }
+
+    /**
+     * r = b - A x.
+     *
+     * @return ||r||
+     */
+    default double residual(double[] b, double[] x, double[] r) {
+        multiply(x, r);
+        double s = 0.0;
+        for (int i = 0; i < r.length; i++) {
+            r[i] = b[i] - r[i];
+            s += r[i] * r[i];
+        }
+        return Math.sqrt(s);
+    }
+
+    /**
+     * ax = A x.
+     *
+     * @return w . ax
+     */
+    default double multiplyDot(double[] x, double[] ax, double[] w) {
+        multiply(x, ax);
+        double s = 0.0;
+        for (int i = 0; i < ax.length; i++) {
+            s += w[i] * ax[i];
+        }
+        return s;
+    }
+
+    /**
+     * ap = A p.
+     *
+     * @return p . Ap
+     */
+    default double multiplyDot(double[] p, double[] ap) {
+        return multiplyDot(p, ap, p);
+    }
+
+    /**
+     * y = alpha A x + beta y (y is not read when beta == 0).
+     */
+    default void multiplyAdd(double alpha, double[] x, double beta, double[] y) {
+        double[] ax = multiply(x);
+        for (int i = 0; i < ax.length; i++) {
+            y[i] = alpha * ax[i] + (beta == 0.0 ? 0.0 : beta * y[i]);
+        }
+    }
+
     public SparseMatrix transpose();
 }
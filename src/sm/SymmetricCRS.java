@@ -0,0 +1,423 @@
+package sm;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Symmetric matrix stored as its upper triangle in CRS layout. Every row
+ * starts with the diagonal entry, followed by the strict upper part
+ * (columns > row).
+ *
+ * @author jstar
+ */
+public class SymmetricCRS implements SparseMatrix {
+
+    private final int[] ia;
+    private final int[] ja;
+    private final double[] a;
+    private Boolean parallel;
+    private final AtomicReference<double[][]> partials = new AtomicReference<>();   // spare buffers of the parallel SpMV
+    private volatile int[] rowBlocks;   // cached split of the rows between threads
+    private int[] colStart;   // positions of upper entries by column, built on demand
+    private int[] colPos;
+
+    public SymmetricCRS(int[] ia, int[] ja, double[] a) {
+        for (int i = 0; i < ia.length - 1; i++) {
+            if (ia[i] == ia[i + 1] || ja[ia[i]] != i) {
+                throw new IllegalArgumentException("SymmetricCRS: row " + i + " does not start with diagonal entry");
+            }
+        }
+        this.ia = ia;
+        this.ja = ja;
+        this.a = a;
+    }
+
+    /**
+     * Takes the diagonal and the upper triangle of a (symmetric) full matrix.
+     * Diagonal entries missing in m are stored as zeroes.
+     */
+    public static SymmetricCRS upperOf(CRS m) {
+        int n = m.nRows();
+        int[] mia = m.getRowPointers();
+        int[] mja = m.getColumnIndices();
+        double[] ma = m.getValues();
+        int[] ia = new int[n + 1];
+        for (int i = 0; i < n; i++) {
+            int cnt = 1;
+            for (int k = mia[i]; k < mia[i + 1]; k++) {
+                if (mja[k] > i) {
+                    cnt++;
+                }
+            }
+            ia[i + 1] = ia[i] + cnt;
+        }
+        int[] ja = new int[ia[n]];
+        double[] a = new double[ia[n]];
+        for (int i = 0; i < n; i++) {
+            int p = ia[i];
+            ja[p++] = i;
+            for (int k = mia[i]; k < mia[i + 1]; k++) {
+                if (mja[k] == i) {
+                    a[ia[i]] = ma[k];
+                } else if (mja[k] > i) {
+                    ja[p] = mja[k];
+                    a[p++] = ma[k];
+                }
+            }
+        }
+        return new SymmetricCRS(ia, ja, a);
+    }
+
+    @Override
+    public int nRows() {
+        return ia.length - 1;
+    }
+
+    @Override
+    public int nCols() {
+        return ia.length - 1;
+    }
+
+    /**
+     * @return number of non-zeroes of the full matrix (both triangles)
+     */
+    @Override
+    public int nNonZeroes() {
+        int n = ia.length - 1;
+        return 2 * (ia[n] - n) + n;
+    }
+
+    /**
+     * @return number of stored entries (diagonal and upper triangle)
+     */
+    public int nStored() {
+        return ia[ia.length - 1];
+    }
+
+    /**
+     * @return position of A[i,j] in the value array, -1 if it is not stored
+     * (which is always the case for i &gt; j)
+     */
+    public int indexOf(int i, int j) {
+        if (i > j) {
+            return -1;
+        }
+        for (int k = ia[i]; k < ia[i + 1]; k++) {
+            if (ja[k] == j) {
+                return k;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public double get(int i, int j) {
+        int k = i <= j ? indexOf(i, j) : indexOf(j, i);
+        return k < 0 ? 0.0 : a[k];
+    }
+
+    /**
+     * Sets both A[i,j] and A[j,i].
+     */
+    @Override
+    public void set(int i, int j, double value) {
+        int k = i <= j ? indexOf(i, j) : indexOf(j, i);
+        if (k >= 0) {
+            a[k] = value;
+        } else if (value != 0.0) {
+            throw new IllegalArgumentException("SymmetricCRS: No entry A[" + i + "," + j + "]");
+        }
+    }
+
+    public void addTo(int i, int j, double d) {
+        int k = i <= j ? indexOf(i, j) : indexOf(j, i);
+        if (k < 0) {
+            throw new IllegalArgumentException("SymmetricCRS: No entry A[" + i + "," + j + "]");
+        }
+        a[k] += d;
+    }
+
+    public int[] getRowPointers() {
+        return ia;
+    }
+
+    public int[] getColumnIndices() {
+        return ja;
+    }
+
+    public double[] getValues() {
+        return a;
+    }
+
+    public void clear() {
+        Arrays.fill(a, 0.0);
+    }
+
+    /**
+     * Dirichlet condition x[v] = value: row and column v are zeroed except
+     * the diagonal, rhs is corrected accordingly.
+     */
+    public void applyDirichlet(int v, double value, double[] rhs) {
+        if (colStart == null) {
+            makeColumnIndex();
+        }
+        double d = a[ia[v]];
+        for (int k = ia[v] + 1; k < ia[v + 1]; k++) {   // A[v,j], j > v
+            rhs[ja[k]] -= a[k] * value;
+            a[k] = 0.0;
+        }
+        for (int c = colStart[v]; c < colStart[v + 1]; c++) {   // A[r,v], r < v
+            int k = colPos[c];
+            int r = rowOf(k);
+            rhs[r] -= a[k] * value;
+            a[k] = 0.0;
+        }
+        rhs[v] = d * value;
+    }
+
+    private int rowOf(int k) {
+        int lo = 0, hi = ia.length - 2;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (ia[mid] <= k) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return lo;
+    }
+
+    private void makeColumnIndex() {
+        int n = ia.length - 1;
+        int[] start = new int[n + 1];
+        for (int i = 0; i < n; i++) {
+            for (int k = ia[i] + 1; k < ia[i + 1]; k++) {
+                start[ja[k] + 1]++;
+            }
+        }
+        for (int j = 0; j < n; j++) {
+            start[j + 1] += start[j];
+        }
+        int[] pos = new int[start[n]];
+        int[] next = Arrays.copyOf(start, n);
+        for (int i = 0; i < n; i++) {
+            for (int k = ia[i] + 1; k < ia[i + 1]; k++) {
+                pos[next[ja[k]]++] = k;
+            }
+        }
+        colStart = start;
+        colPos = pos;
+    }
+
+    public void setParallel(boolean flag) {
+        parallel = flag;
+    }
+
+    public boolean isParallel() {
+        return parallel == null ? CRS.isDefaultParallel() : parallel;
+    }
+
+    @Override
+    public double[] multiply(double[] x) {
+        double[] r = new double[ia.length - 1];
+        multiply(x, r);
+        return r;
+    }
+
+    @Override
+    public void multiply(double[] x, double[] r) {
+        if (isParallel() && Parallel.getNoThreads() > 1 && a.length >= CRS.getParallelThreshold() / 2) {
+            multiplyParallel(x, r);
+            return;
+        }
+        Arrays.fill(r, 0, ia.length - 1, 0.0);
+        multiplyRows(x, r, 0, ia.length - 1);
+    }
+
+    // every stored A[i,j] contributes to r[i] and (off the diagonal) to r[j]
+    private void multiplyRows(double[] x, double[] r, int from, int to) {
+        for (int i = from; i < to; i++) {
+            double xi = x[i];
+            double s = a[ia[i]] * xi;
+            for (int k = ia[i] + 1; k < ia[i + 1]; k++) {
+                int j = ja[k];
+                s += a[k] * x[j];
+                r[j] += a[k] * xi;
+            }
+            r[i] += s;
+        }
+    }
+
+    // as above, returns the contributions dotted with w
+    private double multiplyRows(double[] x, double[] r, double[] w, int from, int to) {
+        double d = 0.0;
+        for (int i = from; i < to; i++) {
+            double xi = x[i], wi = w[i];
+            double s = a[ia[i]] * xi;
+            for (int k = ia[i] + 1; k < ia[i + 1]; k++) {
+                int j = ja[k];
+                s += a[k] * x[j];
+                r[j] += a[k] * xi;
+                d += a[k] * xi * w[j];
+            }
+            r[i] += s;
+            d += wi * s;
+        }
+        return d;
+    }
+
+    // rows are split by stored non-zeroes, each thread accumulates into a private vector
+    private void multiplyParallel(double[] x, double[] r) {
+        multiplyParallel(x, r, null);
+    }
+
+    private int[] rowBlocks(int nParts) {
+        int[] blocks = rowBlocks;
+        if (blocks == null || blocks.length != nParts + 1) {
+            blocks = CRS.balancedRowBlocks(ia, nParts);
+            rowBlocks = blocks;
+        }
+        return blocks;
+    }
+
+    // with w != null also returns w . r
+    private double multiplyParallel(double[] x, double[] r, double[] w) {
+        final int nt = Parallel.getNoThreads();
+        final int n = ia.length - 1;
+        double[][] spare = partials.getAndSet(null);
+        if (spare == null || spare.length != nt || spare[0].length != n) {
+            spare = new double[nt][n];
+        }
+        final double[][] bufs = spare;
+        final int[] blocks = rowBlocks(nt);
+        final double[] dots = w == null ? null : Parallel.takePartials(nt);
+        try {
+            Parallel.forEach(nt, t -> {
+                double[] buf = bufs[t];
+                Arrays.fill(buf, 0.0);
+                if (w == null) {
+                    multiplyRows(x, buf, blocks[t], blocks[t + 1]);
+                } else {
+                    dots[t] = multiplyRows(x, buf, w, blocks[t], blocks[t + 1]);
+                }
+            });
+            final int chunk = (n + nt - 1) / nt;
+            Parallel.forEach(nt, t -> {
+                int from = t * chunk, to = Math.min(n, from + chunk);
+                for (int j = from; j < to; j++) {
+                    double s = 0.0;
+                    for (double[] buf : bufs) {
+                        s += buf[j];
+                    }
+                    r[j] = s;
+                }
+            });
+            double d = 0.0;
+            for (int t = 0; w != null && t < nt; t++) {
+                d += dots[t];
+            }
+            partials.set(bufs);
+            return d;
+        } finally {
+            Parallel.releasePartials(dots);
+        }
+    }
+
+    /**
+     * ax = A x together with w . ax: every stored A[i,j] adds
+     * A[i,j] (w[i] x[j] + w[j] x[i]) to the product, so the dot product needs
+     * no second pass.
+     */
+    @Override
+    public double multiplyDot(double[] x, double[] ax, double[] w) {
+        if (isParallel() && Parallel.getNoThreads() > 1 && a.length >= CRS.getParallelThreshold() / 2) {
+            return multiplyParallel(x, ax, w);
+        }
+        Arrays.fill(ax, 0, ia.length - 1, 0.0);
+        return multiplyRows(x, ax, w, 0, ia.length - 1);
+    }
+
+    /**
+     * Y = A X for k interleaved vectors (X[j*k + c] = x_c[j]).
+     */
+    @Override
+    public void multiply(double[] X, double[] Y, int k) {
+        int n = ia.length - 1;
+        Arrays.fill(Y, 0, n * k, 0.0);
+        for (int i = 0; i < n; i++) {
+            int xi = i * k;
+            double d = a[ia[i]];
+            for (int c = 0; c < k; c++) {
+                Y[xi + c] += d * X[xi + c];
+            }
+            for (int p = ia[i] + 1; p < ia[i + 1]; p++) {
+                double v = a[p];
+                int xj = ja[p] * k;
+                for (int c = 0; c < k; c++) {
+                    Y[xi + c] += v * X[xj + c];
+                    Y[xj + c] += v * X[xi + c];
+                }
+            }
+        }
+    }
+
+    @Override
+    public void multiplyTransposed(double[] x, double[] result) {
+        multiply(x, result);
+    }
+
+    /**
+     * A symmetric matrix is its own transpose.
+     */
+    @Override
+    public SparseMatrix transpose() {
+        return this;
+    }
+
+    /**
+     * @return the full matrix (both triangles)
+     */
+    public CRS toCRS() {
+        int n = ia.length - 1;
+        int[] fia = new int[n + 1];
+        for (int i = 0; i < n; i++) {
+            fia[i + 1] += ia[i + 1] - ia[i];
+            for (int k = ia[i] + 1; k < ia[i + 1]; k++) {
+                fia[ja[k] + 1]++;
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            fia[i + 1] += fia[i];
+        }
+        int[] fja = new int[fia[n]];
+        double[] fa = new double[fia[n]];
+        int[] next = Arrays.copyOf(fia, n);
+        // rows visited in increasing order, so lower entries (from earlier rows) precede the diagonal
+        for (int i = 0; i < n; i++) {
+            for (int k = ia[i]; k < ia[i + 1]; k++) {
+                int j = ja[k];
+                fja[next[i]] = j;
+                fa[next[i]++] = a[k];
+                if (j != i) {
+                    fja[next[j]] = i;
+                    fa[next[j]++] = a[k];
+                }
+            }
+        }
+        return new CRS(fia, fja, fa);
+    }
+
+    @Override
+    public String toString() {
+        int n = ia.length - 1;
+        StringBuilder ret = new StringBuilder();
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                ret.append(get(i, j)).append(" ");
+            }
+            ret.append("\n");
+        }
+        return ret.toString();
+    }
+}
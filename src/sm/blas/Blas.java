@@ -0,0 +1,261 @@
+package sm.blas;
+
+import java.util.Arrays;
+import sm.Parallel;
+
+/**
+ * In-place BLAS-1 kernels on double[] vectors. Nothing is allocated, the
+ * result always goes to one of the arguments.
+ *
+ * Long vectors are split between the threads of sm.Parallel when parallel
+ * mode is on (system property sm.parallel or setParallel); partial sums of
+ * reductions are added in a fixed order, so results do not depend on
+ * thread scheduling. Chunks are processed by a SIMD kernel when the
+ * jdk.incubator.vector module is present.
+ *
+ * @author jstar
+ */
+public final class Blas {
+
+    /**
+     * Operations on x[from..to), y[from..to).
+     */
+    interface Kernel {
+
+        void axpy(double a, double[] x, double[] y, int from, int to);
+
+        void axpby(double a, double[] x, double b, double[] y, int from, int to);
+
+        void xpay(double[] x, double a, double[] y, int from, int to);
+
+        void scal(double a, double[] x, int from, int to);
+
+        double dot(double[] x, double[] y, int from, int to);
+    }
+
+    private static final Kernel SCALAR = new Kernel() {
+        @Override
+        public void axpy(double a, double[] x, double[] y, int from, int to) {
+            for (int i = from; i < to; i++) {
+                y[i] += a * x[i];
+            }
+        }
+
+        @Override
+        public void axpby(double a, double[] x, double b, double[] y, int from, int to) {
+            for (int i = from; i < to; i++) {
+                y[i] = a * x[i] + b * y[i];
+            }
+        }
+
+        @Override
+        public void xpay(double[] x, double a, double[] y, int from, int to) {
+            for (int i = from; i < to; i++) {
+                y[i] = x[i] + a * y[i];
+            }
+        }
+
+        @Override
+        public void scal(double a, double[] x, int from, int to) {
+            for (int i = from; i < to; i++) {
+                x[i] *= a;
+            }
+        }
+
+        @Override
+        public double dot(double[] x, double[] y, int from, int to) {
+            double s = 0.0;
+            for (int i = from; i < to; i++) {
+                s += x[i] * y[i];
+            }
+            return s;
+        }
+    };
+
+    private static final Kernel VECTOR = loadVectorKernel();
+    private static final int BLOCK = 2048;   // multiDot: x block reused from cache for all vectors
+
+    private static boolean parallel = Boolean.getBoolean("sm.parallel");
+    private static int parallelThreshold = 1 << 16;
+    private static boolean useVector = true;
+
+    private Blas() {
+    }
+
+    private static Kernel loadVectorKernel() {
+        try {
+            if (ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+                return (Kernel) Class.forName("sm.blas.VectorKernel").getDeclaredConstructor().newInstance();
+            }
+        } catch (ReflectiveOperationException | LinkageError e) {
+        }
+        return null;
+    }
+
+    /**
+     * @return true if the SIMD kernel is available in this JVM
+     */
+    public static boolean isVectorized() {
+        return VECTOR != null;
+    }
+
+    /**
+     * Use the SIMD kernel if available (default) or plain loops.
+     */
+    public static void setVectorized(boolean flag) {
+        useVector = flag;
+    }
+
+    public static void setParallel(boolean flag) {
+        parallel = flag;
+    }
+
+    public static boolean isParallel() {
+        return parallel;
+    }
+
+    /**
+     * Shorter vectors are always processed by the calling thread.
+     */
+    public static void setParallelThreshold(int n) {
+        parallelThreshold = n;
+    }
+
+    private static Kernel kernel() {
+        return useVector && VECTOR != null ? VECTOR : SCALAR;
+    }
+
+    private static int nChunks(int n) {
+        return parallel && n >= parallelThreshold ? Parallel.getNoThreads() : 1;
+    }
+
+    // chunk c of nc covers [start(n, c, nc), start(n, c+1, nc)), boundaries aligned to 8 elements
+    private static int start(int n, int c, int nc) {
+        return c == nc ? n : (int) ((long) n * c / nc) & ~7;
+    }
+
+    /**
+     * y = a x + y
+     */
+    public static void axpy(double a, double[] x, double[] y) {
+        final int n = y.length, nc = nChunks(n);
+        final Kernel k = kernel();
+        if (nc == 1) {
+            k.axpy(a, x, y, 0, n);
+        } else {
+            Parallel.forEach(nc, c -> k.axpy(a, x, y, start(n, c, nc), start(n, c + 1, nc)));
+        }
+    }
+
+    /**
+     * y = a x + b y
+     */
+    public static void axpby(double a, double[] x, double b, double[] y) {
+        final int n = y.length, nc = nChunks(n);
+        final Kernel k = kernel();
+        if (nc == 1) {
+            k.axpby(a, x, b, y, 0, n);
+        } else {
+            Parallel.forEach(nc, c -> k.axpby(a, x, b, y, start(n, c, nc), start(n, c + 1, nc)));
+        }
+    }
+
+    /**
+     * y = x + a y
+     */
+    public static void xpay(double[] x, double a, double[] y) {
+        final int n = y.length, nc = nChunks(n);
+        final Kernel k = kernel();
+        if (nc == 1) {
+            k.xpay(x, a, y, 0, n);
+        } else {
+            Parallel.forEach(nc, c -> k.xpay(x, a, y, start(n, c, nc), start(n, c + 1, nc)));
+        }
+    }
+
+    /**
+     * x = a x
+     */
+    public static void scal(double a, double[] x) {
+        final int n = x.length, nc = nChunks(n);
+        final Kernel k = kernel();
+        if (nc == 1) {
+            k.scal(a, x, 0, n);
+        } else {
+            Parallel.forEach(nc, c -> k.scal(a, x, start(n, c, nc), start(n, c + 1, nc)));
+        }
+    }
+
+    /**
+     * y = x
+     */
+    public static void copy(double[] x, double[] y) {
+        System.arraycopy(x, 0, y, 0, y.length);
+    }
+
+    /**
+     * y = 0
+     */
+    public static void zero(double[] y) {
+        Arrays.fill(y, 0.0);
+    }
+
+    public static double dot(double[] x, double[] y) {
+        final int n = x.length, nc = nChunks(n);
+        final Kernel k = kernel();
+        if (nc == 1) {
+            return k.dot(x, y, 0, n);
+        }
+        final double[] part = Parallel.takePartials(nc);
+        try {
+            Parallel.forEach(nc, c -> part[c] = k.dot(x, y, start(n, c, nc), start(n, c + 1, nc)));
+            double s = 0.0;
+            for (int c = 0; c < nc; c++) {
+                s += part[c];
+            }
+            return s;
+        } finally {
+            Parallel.releasePartials(part);
+        }
+    }
+
+    public static double nrm2(double[] x) {
+        return Math.sqrt(dot(x, x));
+    }
+
+    /**
+     * result[j] = x . v[j] for j = 0..k-1 in one pass over x (x is read in
+     * cache-sized blocks, each dotted with all k vectors).
+     */
+    public static void multiDot(double[] x, double[][] v, int k, double[] result) {
+        final int n = x.length, nc = nChunks(n);
+        final Kernel kn = kernel();
+        if (nc == 1) {
+            multiDot(kn, x, v, k, result, 0, 0, n);
+            return;
+        }
+        final double[] part = Parallel.takePartials(nc * k);   // chunk c at part[c*k..c*k+k)
+        try {
+            Parallel.forEach(nc, c -> multiDot(kn, x, v, k, part, c * k, start(n, c, nc), start(n, c + 1, nc)));
+            for (int j = 0; j < k; j++) {
+                double s = 0.0;
+                for (int c = 0; c < nc; c++) {
+                    s += part[c * k + j];
+                }
+                result[j] = s;
+            }
+        } finally {
+            Parallel.releasePartials(part);
+        }
+    }
+
+    private static void multiDot(Kernel kn, double[] x, double[][] v, int k, double[] result, int off, int from, int to) {
+        Arrays.fill(result, off, off + k, 0.0);
+        for (int b = from; b < to; b += BLOCK) {
+            int e = Math.min(to, b + BLOCK);
+            for (int j = 0; j < k; j++) {
+                result[off + j] += kn.dot(x, v[j], b, e);
+            }
+        }
+    }
+}
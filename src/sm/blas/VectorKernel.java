@@ -0,0 +1,89 @@
+package sm.blas;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * SIMD BLAS-1 kernels, loaded by Blas only when jdk.incubator.vector is
+ * present.
+ *
+ * @author jstar
+ */
+class VectorKernel implements Blas.Kernel {
+
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    @Override
+    public void axpy(double a, double[] x, double[] y, int from, int to) {
+        DoubleVector av = DoubleVector.broadcast(SPECIES, a);
+        int i = from;
+        int upper = from + SPECIES.loopBound(to - from);
+        for (; i < upper; i += SPECIES.length()) {
+            DoubleVector xv = DoubleVector.fromArray(SPECIES, x, i);
+            DoubleVector yv = DoubleVector.fromArray(SPECIES, y, i);
+            xv.fma(av, yv).intoArray(y, i);
+        }
+        for (; i < to; i++) {
+            y[i] += a * x[i];
+        }
+    }
+
+    @Override
+    public void axpby(double a, double[] x, double b, double[] y, int from, int to) {
+        DoubleVector av = DoubleVector.broadcast(SPECIES, a);
+        int i = from;
+        int upper = from + SPECIES.loopBound(to - from);
+        for (; i < upper; i += SPECIES.length()) {
+            DoubleVector xv = DoubleVector.fromArray(SPECIES, x, i);
+            DoubleVector yv = DoubleVector.fromArray(SPECIES, y, i);
+            xv.fma(av, yv.mul(b)).intoArray(y, i);
+        }
+        for (; i < to; i++) {
+            y[i] = a * x[i] + b * y[i];
+        }
+    }
+
+    @Override
+    public void xpay(double[] x, double a, double[] y, int from, int to) {
+        DoubleVector av = DoubleVector.broadcast(SPECIES, a);
+        int i = from;
+        int upper = from + SPECIES.loopBound(to - from);
+        for (; i < upper; i += SPECIES.length()) {
+            DoubleVector xv = DoubleVector.fromArray(SPECIES, x, i);
+            DoubleVector yv = DoubleVector.fromArray(SPECIES, y, i);
+            yv.fma(av, xv).intoArray(y, i);
+        }
+        for (; i < to; i++) {
+            y[i] = x[i] + a * y[i];
+        }
+    }
+
+    @Override
+    public void scal(double a, double[] x, int from, int to) {
+        int i = from;
+        int upper = from + SPECIES.loopBound(to - from);
+        for (; i < upper; i += SPECIES.length()) {
+            DoubleVector.fromArray(SPECIES, x, i).mul(a).intoArray(x, i);
+        }
+        for (; i < to; i++) {
+            x[i] *= a;
+        }
+    }
+
+    @Override
+    public double dot(double[] x, double[] y, int from, int to) {
+        int i = from;
+        int upper = from + SPECIES.loopBound(to - from);
+        DoubleVector acc = DoubleVector.zero(SPECIES);
+        for (; i < upper; i += SPECIES.length()) {
+            DoubleVector xv = DoubleVector.fromArray(SPECIES, x, i);
+            acc = xv.fma(DoubleVector.fromArray(SPECIES, y, i), acc);
+        }
+        double s = acc.reduceLanes(VectorOperators.ADD);
+        for (; i < to; i++) {
+            s += x[i] * y[i];
+        }
+        return s;
+    }
+}
@@ -0,0 +1,350 @@
+package sm.solvers;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Supplier;
+import sm.CRS;
+import sm.CRSPattern;
+import sm.Parallel;
+import sm.SparseMatrix;
+import sm.SpGEMM;
+import sm.blas.Blas;
+
+/**
+ * Smoothed aggregation algebraic multigrid, used as a preconditioner (one
+ * V-cycle per apply). Meant for symmetric positive definite matrices like
+ * the FEM Laplace ones: the cycle is symmetric (with a symmetric smoother
+ * or one whose postsmooth is the adjoint of presmooth), so it may be used
+ * with PCG, and the number of iterations hardly grows with the mesh size.
+ *
+ * Setup, for every level: strength graph (|a_ij| >= theta
+ * sqrt(|a_ii a_jj|)), greedy aggregation, tentative prolongator (constant on
+ * every aggregate), prolongator smoothed by one damped Jacobi step P = (I -
+ * omega D^-1 A) P_tent, restriction R = P^T and Galerkin coarse matrix R A
+ * P (two SpGEMM products). The coarsest matrix is factorized by dense LU.
+ * Strength graph, prolongator smoothing, matrix products and the default
+ * (Jacobi) smoother are parallel.
+ *
+ * @author jstar
+ */
+public class AMG implements Preconditioner {
+
+    public static final int MAX_DENSE = 2000;
+
+    private double theta = 0.08;
+    private int maxLevels = 10;
+    private int coarseSize = 400;
+    private Supplier<Smoother> smoothers = JacobiSmoother::new;
+
+    private Level[] levels;
+    private double[] lu;   // dense factor of the coarsest matrix, null if too large
+    private int[] piv;
+
+    private static class Level {
+
+        CRS A, P, R;
+        Smoother smoother;
+        double[] b, x, r;
+    }
+
+    /**
+     * Threshold of the strength of connection (default 0.08).
+     */
+    public void setStrengthThreshold(double theta) {
+        this.theta = theta;
+    }
+
+    public void setMaxLevels(int maxLevels) {
+        if (maxLevels < 1) {
+            throw new IllegalArgumentException("AMG: number of levels must be positive");
+        }
+        this.maxLevels = maxLevels;
+    }
+
+    /**
+     * Coarsening stops when a level has at most n unknowns (default 400).
+     */
+    public void setCoarseSize(int n) {
+        this.coarseSize = n;
+    }
+
+    /**
+     * Every level gets its own smoother from s (default damped Jacobi).
+     */
+    public void setSmoother(Supplier<Smoother> s) {
+        this.smoothers = s;
+    }
+
+    public int getNoLevels() {
+        return levels == null ? 0 : levels.length;
+    }
+
+    /**
+     * @return sum of non-zeroes on all levels divided by non-zeroes of A
+     */
+    public double getOperatorComplexity() {
+        long nnz = 0;
+        for (Level l : levels) {
+            nnz += l.A.nNonZeroes();
+        }
+        return (double) nnz / levels[0].A.nNonZeroes();
+    }
+
+    @Override
+    public void setup(SparseMatrix A) {
+        CRS m = IncompleteFactor.crsOf(A, "AMG");
+        if (m.nRows() != m.nCols()) {
+            throw new IllegalArgumentException("AMG: square matrix needed");
+        }
+        List<Level> list = new ArrayList<>();
+        while (true) {
+            Level l = new Level();
+            l.A = m;
+            l.b = new double[m.nRows()];
+            l.x = new double[m.nRows()];
+            l.r = new double[m.nRows()];
+            list.add(l);
+            if (list.size() == maxLevels || m.nRows() <= coarseSize) {
+                break;
+            }
+            int[] agg = new int[m.nRows()];
+            int nAgg = aggregate(strength(m, theta), agg);
+            if (nAgg == 0 || nAgg > 0.9 * m.nRows()) {
+                break;   // coarsening stagnates
+            }
+            l.P = prolongator(m, agg, nAgg);
+            l.R = (CRS) l.P.transpose();
+            m = SpGEMM.product(l.R, SpGEMM.product(m, l.P));
+        }
+        levels = list.toArray(new Level[0]);
+        for (int i = 0; i < levels.length - 1; i++) {
+            levels[i].smoother = smoothers.get();
+            levels[i].smoother.setup(levels[i].A);
+        }
+        Level c = levels[levels.length - 1];
+        int n = c.A.nRows();
+        lu = null;
+        if (n <= MAX_DENSE) {
+            lu = new double[n * n];
+            piv = new int[n];
+            int[] ia = c.A.getRowPointers(), ja = c.A.getColumnIndices();
+            double[] a = c.A.getValues();
+            for (int i = 0; i < n; i++) {
+                for (int k = ia[i]; k < ia[i + 1]; k++) {
+                    lu[i * n + ja[k]] += a[k];
+                }
+            }
+            if (!BlockJacobi.factorize(lu, piv, n)) {
+                throw new IllegalArgumentException("AMG: singular coarse matrix");
+            }
+        } else {
+            c.smoother = smoothers.get();
+            c.smoother.setup(c.A);
+        }
+    }
+
+    // rows [from,to) of chunk t of nt
+    private static int chunk(int n, int t, int nt) {
+        return (int) ((long) n * t / nt);
+    }
+
+    private static int nChunks() {
+        return Blas.isParallel() ? Parallel.getNoThreads() : 1;
+    }
+
+    /**
+     * Strong connections of every row (pattern without values).
+     */
+    static CRSPattern strength(CRS m, double theta) {
+        final int n = m.nRows();
+        final int[] ia = m.getRowPointers(), ja = m.getColumnIndices();
+        final double[] a = m.getValues();
+        final double[] d = Jacobi.diagonal(m, new double[n]);
+        final int[] sia = new int[n + 1];
+        final int nt = nChunks();
+        Parallel.forEach(nt, t -> {
+            for (int i = chunk(n, t, nt); i < chunk(n, t + 1, nt); i++) {
+                int cnt = 0;
+                for (int k = ia[i]; k < ia[i + 1]; k++) {
+                    if (isStrong(i, ja[k], a[k], d, theta)) {
+                        cnt++;
+                    }
+                }
+                sia[i + 1] = cnt;
+            }
+        });
+        for (int i = 0; i < n; i++) {
+            sia[i + 1] += sia[i];
+        }
+        final int[] sja = new int[sia[n]];
+        Parallel.forEach(nt, t -> {
+            for (int i = chunk(n, t, nt); i < chunk(n, t + 1, nt); i++) {
+                int p = sia[i];
+                for (int k = ia[i]; k < ia[i + 1]; k++) {
+                    if (isStrong(i, ja[k], a[k], d, theta)) {
+                        sja[p++] = ja[k];
+                    }
+                }
+            }
+        });
+        return new CRSPattern(sia, sja);
+    }
+
+    private static boolean isStrong(int i, int j, double aij, double[] d, double theta) {
+        return j != i && aij != 0.0 && aij * aij >= theta * theta * Math.abs(d[i] * d[j]);
+    }
+
+    /**
+     * Greedy aggregation: 1) a node with all its strong neighbours free
+     * becomes the root of a new aggregate, 2) free nodes join an aggregate of
+     * a strong neighbour, 3) what is left forms new aggregates with its free
+     * neighbours. Nodes without strong connections (e.g. Dirichlet rows) are
+     * left out (agg = -1).
+     *
+     * @return number of aggregates
+     */
+    static int aggregate(CRSPattern s, int[] agg) {
+        int n = s.nRows();
+        int[] ia = s.getRowPointers(), ja = s.getColumnIndices();
+        Arrays.fill(agg, -1);
+        int nAgg = 0;
+        for (int i = 0; i < n; i++) {
+            if (agg[i] >= 0 || ia[i] == ia[i + 1]) {
+                continue;
+            }
+            boolean free = true;
+            for (int k = ia[i]; k < ia[i + 1] && free; k++) {
+                free = agg[ja[k]] < 0;
+            }
+            if (free) {
+                agg[i] = nAgg;
+                for (int k = ia[i]; k < ia[i + 1]; k++) {
+                    agg[ja[k]] = nAgg;
+                }
+                nAgg++;
+            }
+        }
+        int[] first = agg.clone();
+        for (int i = 0; i < n; i++) {
+            if (agg[i] < 0) {
+                for (int k = ia[i]; k < ia[i + 1]; k++) {
+                    if (first[ja[k]] >= 0) {
+                        agg[i] = first[ja[k]];
+                        break;
+                    }
+                }
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            if (agg[i] < 0 && ia[i] < ia[i + 1]) {
+                agg[i] = nAgg;
+                for (int k = ia[i]; k < ia[i + 1]; k++) {
+                    if (agg[ja[k]] < 0) {
+                        agg[ja[k]] = nAgg;
+                    }
+                }
+                nAgg++;
+            }
+        }
+        return nAgg;
+    }
+
+    /**
+     * P = (I - omega D^-1 A) P_tent with omega = 4/3 / rho(D^-1 A), rho
+     * bounded by the largest row sum of |D^-1 A|.
+     */
+    static CRS prolongator(CRS m, int[] agg, int nAgg) {
+        final int n = m.nRows();
+        int[] size = new int[nAgg];
+        for (int i = 0; i < n; i++) {
+            if (agg[i] >= 0) {
+                size[agg[i]]++;
+            }
+        }
+        int[] tia = new int[n + 1];
+        for (int i = 0; i < n; i++) {
+            tia[i + 1] = tia[i] + (agg[i] >= 0 ? 1 : 0);
+        }
+        int[] tja = new int[tia[n]];
+        double[] ta = new double[tia[n]];
+        for (int i = 0; i < n; i++) {
+            if (agg[i] >= 0) {
+                tja[tia[i]] = agg[i];
+                ta[tia[i]] = 1.0 / Math.sqrt(size[agg[i]]);
+            }
+        }
+        final CRS tent = new CRS(new CRSPattern(tia, tja, nAgg), ta);
+
+        final int[] ia = m.getRowPointers();
+        final double[] a = m.getValues();
+        final double[] d = Jacobi.diagonal(m, new double[n]);
+        final int nt = nChunks();
+        final double[] rowMax = new double[nt];
+        Parallel.forEach(nt, t -> {
+            for (int i = chunk(n, t, nt); i < chunk(n, t + 1, nt); i++) {
+                if (d[i] != 0.0) {
+                    double s = 0.0;
+                    for (int k = ia[i]; k < ia[i + 1]; k++) {
+                        s += Math.abs(a[k]);
+                    }
+                    rowMax[t] = Math.max(rowMax[t], s / Math.abs(d[i]));
+                }
+            }
+        });
+        double rho = 0.0;
+        for (double r : rowMax) {
+            rho = Math.max(rho, r);
+        }
+        final double omega = rho > 0.0 ? 4.0 / 3.0 / rho : 0.0;
+
+        final CRS p = SpGEMM.product(m, tent);   // A P_tent; its pattern contains that of P_tent
+        final int[] pia = p.getRowPointers(), pja = p.getColumnIndices();
+        final double[] pa = p.getValues();
+        Parallel.forEach(nt, t -> {
+            for (int i = chunk(n, t, nt); i < chunk(n, t + 1, nt); i++) {
+                double s = d[i] != 0.0 ? -omega / d[i] : 0.0;
+                for (int k = pia[i]; k < pia[i + 1]; k++) {
+                    pa[k] *= s;
+                    if (agg[i] >= 0 && pja[k] == agg[i]) {
+                        pa[k] += ta[tia[i]];
+                    }
+                }
+            }
+        });
+        return p;
+    }
+
+    @Override
+    public void apply(double[] r, double[] z) {
+        cycle(0, r, z);
+    }
+
+    // V-cycle for A_l x = b from x = 0
+    private void cycle(int l, double[] b, double[] x) {
+        Level lv = levels[l];
+        if (l == levels.length - 1 && lu != null) {
+            BlockJacobi.solveDense(lu, piv, b.length, b, x);
+            return;
+        }
+        Blas.zero(x);
+        lv.smoother.presmooth(b, x);
+        if (l < levels.length - 1) {
+            Level c = levels[l + 1];
+            lv.A.residual(b, x, lv.r);
+            lv.R.multiply(lv.r, c.b);
+            cycle(l + 1, c.b, c.x);
+            lv.P.multiplyAdd(1.0, c.x, 1.0, x);
+        }
+        lv.smoother.postsmooth(b, x);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("AMG:");
+        for (Level l : levels) {
+            sb.append(' ').append(l.A.nRows()).append(" (").append(l.A.nNonZeroes()).append(")");
+        }
+        return sb.append(", operator complexity ").append(getOperatorComplexity()).toString();
+    }
+}
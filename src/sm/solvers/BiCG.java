@@ -6,6 +6,7 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import sm.*;
+import sm.blas.Blas;
 
 /**
  *
@@ -15,82 +16,72 @@ public class BiCG implements Solver {
 
     private static final java.util.Random rg = new java.util.Random();
 
-    public double[] solve(SparseMatrix A, double[] b, double tol, int maxIter) {  // some unnecessary allocations
+    private final Preconditioner M;
+
+    public BiCG() {
+        this(Preconditioner.NONE);
+    }
+
+    /**
+     * M is used for the system (M^-1) and for the dual one (M^-T).
+     */
+    public BiCG(Preconditioner M) {
+        this.M = M;
+    }
+
+    public Preconditioner getPreconditioner() {
+        return M;
+    }
+
+    public double[] solve(SparseMatrix A, double[] b, double tol, int maxIter) {
         int n = b.length;
         double[] x = new double[n]; // Rozwiązanie początkowe x = 0
         double[] r = Arrays.copyOf(b, n); // r_0 = b - Ax (Ax = 0 na początku)
         double[] rTilde = Arrays.copyOf(r, n); // Kopia wektora resztowego
-        double[] p = Arrays.copyOf(r, n);
-        double[] pTilde = Arrays.copyOf(rTilde, n);
+        boolean precond = M != Preconditioner.NONE;
+        double[] z = precond ? new double[n] : r; // z = M^-1 r
+        double[] zTilde = precond ? new double[n] : rTilde; // zTilde = M^-T rTilde
+        if (precond) {
+            M.setup(A);
+            M.apply(r, z);
+            M.applyTransposed(rTilde, zTilde);
+        }
+        double[] p = Arrays.copyOf(z, n);
+        double[] pTilde = Arrays.copyOf(zTilde, n);
+        double[] Ap = new double[n];
+        double[] ATpTilde = new double[n];
 
-        double rho = dotProduct(rTilde, r);
+        double rho = Blas.dot(zTilde, r);
 
         for (int k = 0; k < maxIter; k++) {
-            double[] Ap = A.multiply(p);
-            double[] ATpTilde = A.transpose().multiply(pTilde);
+            double pTildeAp = A.multiplyDot(p, Ap, pTilde);
+            A.multiplyTransposed(pTilde, ATpTilde);
 
-            double alpha = rho / dotProduct(pTilde, Ap);
+            double alpha = rho / pTildeAp;
 
-            x = vectorAdd(x, scalarMultiply(alpha, p));
-            r = vectorSubtract(r, scalarMultiply(alpha, Ap));
-            rTilde = vectorSubtract(rTilde, scalarMultiply(alpha, ATpTilde));
+            Blas.axpy(alpha, p, x);
+            Blas.axpy(-alpha, Ap, r);
+            Blas.axpy(-alpha, ATpTilde, rTilde);
 
-            double rhoNew = dotProduct(rTilde, r);
-            if (Math.sqrt(rhoNew) < tol) {
-                //System.out.println("BiCG: in " + k + " iterations error dropped to " + Math.sqrt(rhoNew));
-                break; // Kryterium zakończenia
+            if (Blas.nrm2(r) < tol) {
+                return x; // Kryterium zakończenia
             }
 
+            if (precond) {
+                M.apply(r, z);
+                M.applyTransposed(rTilde, zTilde);
+            }
+            double rhoNew = Blas.dot(zTilde, r);
             double beta = rhoNew / rho;
-            p = vectorAdd(r, scalarMultiply(beta, p));
-            pTilde = vectorAdd(rTilde, scalarMultiply(beta, pTilde));
+            Blas.xpay(z, beta, p);
+            Blas.xpay(zTilde, beta, pTilde);
 
             rho = rhoNew;
         }
-        System.out.println("BiCG: in " + maxIter + " iterations error dropped to " + Math.sqrt(rho));
+        System.out.println("BiCG: in " + maxIter + " iterations error dropped to " + Blas.nrm2(r));
         return x;
     }
 
-    private static double dotProduct(double[] a, double[] b) {
-        double sum = 0.0;
-        for (int i = 0; i < a.length; i++) {
-            sum += a[i] * b[i];
-        }
-        return sum;
-    }
-
-    private static double[] vectorAdd(double[] a, double[] b) {
-        double[] result = new double[a.length];
-        for (int i = 0; i < a.length; i++) {
-            result[i] = a[i] + b[i];
-        }
-        return result;
-    }
-
-    private static double[] vectorSubtract(double[] a, double[] b) {
-        double[] result = new double[a.length];
-        for (int i = 0; i < a.length; i++) {
-            result[i] = a[i] - b[i];
-        }
-        return result;
-    }
-
-    private static double norm(double[] a) {
-        double result = 0;
-        for (int i = 0; i < a.length; i++) {
-            result += a[i] * a[i];
-        }
-        return Math.sqrt(result);
-    }
-
-    private static double[] scalarMultiply(double scalar, double[] vector) {
-        double[] result = new double[vector.length];
-        for (int i = 0; i < vector.length; i++) {
-            result[i] = scalar * vector[i];
-        }
-        return result;
-    }
-
     public static HashSM makeHashSM(int n, double sparsity) {
         HashSM m = new HashSM(n, n);
 
@@ -146,7 +137,9 @@ public class BiCG implements Solver {
                 }
             }
         }
-        return new CRS(ia, ja, a);
+        CRS m = new CRS(ia, ja, a);
+        m.setMergePath(true);   // row lengths vary from 1 to 2*sparsity*n
+        return m;
     }
 
     public static void main(String[] args) {
@@ -196,8 +189,7 @@ public class BiCG implements Solver {
                 System.out.println("Rozwiązanie: " + Arrays.toString(solution));
             }
 
-            double[] ax = crs.multiply(solution);
-            double resN = norm(vectorSubtract(ax, b));
+            double resN = crs.residual(b, solution, new double[n]);
             System.out.print(tr + ": sparsity: " + sparsity);
             System.out.print(", actual non-zeroes: " + crs.nNonZeroes() + ", actual sparsity: " + (double) crs.nNonZeroes() / n / n);
             System.out.println(" -> ||Residuum|| = " + resN);
@@ -6,6 +6,7 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import sm.*;
+import sm.blas.Blas;
 
 /**
  *
@@ -15,35 +16,37 @@ public class BiCGSolver implements Solver {
 
     private static final java.util.Random rg = new java.util.Random();
 
-    public double[] solve(SparseMatrix A, double[] b, double tol, int maxIter) {  // some unnecessary allocations
+    public double[] solve(SparseMatrix A, double[] b, double tol, int maxIter) {
         int n = b.length;
         double[] x = new double[n]; // Rozwiązanie początkowe x = 0
         double[] r = Arrays.copyOf(b, n); // r_0 = b - Ax (Ax = 0 na początku)
         double[] rTilde = Arrays.copyOf(r, n); // Kopia wektora resztowego
         double[] p = Arrays.copyOf(r, n);
         double[] pTilde = Arrays.copyOf(rTilde, n);
+        double[] Ap = new double[n];
+        double[] ATpTilde = new double[n];
 
-        double rho = dotProduct(rTilde, r);
+        double rho = Blas.dot(rTilde, r);
 
         for (int k = 0; k < maxIter; k++) {
-            double[] Ap = A.multiply(p);
-            double[] ATpTilde = A.transpose().multiply(pTilde);
+            double pTildeAp = A.multiplyDot(p, Ap, pTilde);
+            A.multiplyTransposed(pTilde, ATpTilde);
 
-            double alpha = rho / dotProduct(pTilde, Ap);
+            double alpha = rho / pTildeAp;
 
-            x = vectorAdd(x, scalarMultiply(alpha, p));
-            r = vectorSubtract(r, scalarMultiply(alpha, Ap));
-            rTilde = vectorSubtract(rTilde, scalarMultiply(alpha, ATpTilde));
+            Blas.axpy(alpha, p, x);
+            Blas.axpy(-alpha, Ap, r);
+            Blas.axpy(-alpha, ATpTilde, rTilde);
 
-            double rhoNew = dotProduct(rTilde, r);
+            double rhoNew = Blas.dot(rTilde, r);
             if (Math.sqrt(rhoNew) < tol) {
                 System.out.println("BiCG: in " + k + " iterations error dropped to " + Math.sqrt(rhoNew));
                 break; // Kryterium zakończenia
             }
 
             double beta = rhoNew / rho;
-            p = vectorAdd(r, scalarMultiply(beta, p));
-            pTilde = vectorAdd(rTilde, scalarMultiply(beta, pTilde));
+            Blas.xpay(r, beta, p);
+            Blas.xpay(rTilde, beta, pTilde);
 
             rho = rhoNew;
         }
@@ -57,77 +60,36 @@ public class BiCGSolver implements Solver {
         double[] rTilde = Arrays.copyOf(r, n); // Kopia wektora resztowego
         double[] p = Arrays.copyOf(r, n);
         double[] pTilde = Arrays.copyOf(rTilde, n);
-        SparseMatrix At = A.transpose();
         double[] Ap = new double[n];
         double[] ATpTilde = new double[n];
 
-        double rho = dotProduct(rTilde, r);
+        double rho = Blas.dot(rTilde, r);
 
         for (int k = 0; k < maxIter; k++) {
-            A.multiply(p, Ap);
-            At.multiply(pTilde, ATpTilde);
+            double pTildeAp = A.multiplyDot(p, Ap, pTilde);
+            A.multiplyTransposed(pTilde, ATpTilde);
 
-            double alpha = rho / dotProduct(pTilde, Ap);
+            double alpha = rho / pTildeAp;
 
-            x = vectorAdd(x, scalarMultiply(alpha, p));
-            r = vectorSubtract(r, scalarMultiply(alpha, Ap));
-            rTilde = vectorSubtract(rTilde, scalarMultiply(alpha, ATpTilde));
+            Blas.axpy(alpha, p, x);
+            Blas.axpy(-alpha, Ap, r);
+            Blas.axpy(-alpha, ATpTilde, rTilde);
 
-            double rhoNew = dotProduct(rTilde, r);
+            double rhoNew = Blas.dot(rTilde, r);
             if (Math.sqrt(rhoNew) < tol) {
                 System.out.println("BiCG: in " + k + " iterations error dropped to " + Math.sqrt(rhoNew));
                 break; // Kryterium zakończenia
             }
 
             double beta = rhoNew / rho;
-            p = vectorAdd(r, scalarMultiply(beta, p));
-            pTilde = vectorAdd(rTilde, scalarMultiply(beta, pTilde));
+            Blas.xpay(r, beta, p);
+            Blas.xpay(rTilde, beta, pTilde);
 
             rho = rhoNew;
         }
         return x;
     }
 
-    private static double dotProduct(double[] a, double[] b) {
-        double sum = 0.0;
-        for (int i = 0; i < a.length; i++) {
-            sum += a[i] * b[i];
-        }
-        return sum;
-    }
-
-    private static double[] vectorAdd(double[] a, double[] b) {
-        double[] result = new double[a.length];
-        for (int i = 0; i < a.length; i++) {
-            result[i] = a[i] + b[i];
-        }
-        return result;
-    }
-
-    private static double[] vectorSubtract(double[] a, double[] b) {
-        double[] result = new double[a.length];
-        for (int i = 0; i < a.length; i++) {
-            result[i] = a[i] - b[i];
-        }
-        return result;
-    }
-
-    private static double norm(double[] a) {
-        double result = 0;
-        for (int i = 0; i < a.length; i++) {
-            result += a[i] * a[i];
-        }
-        return Math.sqrt(result);
-    }
-
-    private static double[] scalarMultiply(double scalar, double[] vector) {
-        double[] result = new double[vector.length];
-        for (int i = 0; i < vector.length; i++) {
-            result[i] = scalar * vector[i];
-        }
-        return result;
-    }
-
     public static HashSM makeHashSM(int n, double sparsity) {
         HashSM m = new HashSM(n, n);
 
@@ -183,7 +145,9 @@ public class BiCGSolver implements Solver {
                 }
             }
         }
-        return new CRS(ia, ja, a);
+        CRS m = new CRS(ia, ja, a);
+        m.setMergePath(true);   // row lengths vary from 1 to 2*sparsity*n
+        return m;
     }
 
     public static void main(String[] args) {
@@ -233,8 +197,7 @@ public class BiCGSolver implements Solver {
                 System.out.println("Rozwiązanie: " + Arrays.toString(solution));
             }
 
-            double[] ax = crs.multiply(solution);
-            double resN = norm(vectorSubtract(ax, b));
+            double resN = crs.residual(b, solution, new double[n]);
             System.out.print(tr + ": sparsity: " + sparsity);
             System.out.print(", actual non-zeroes: " + crs.nNonZeroes() + ", actual sparsity: " + (double) crs.nNonZeroes() / n / n);
             System.out.println(" -> ||Residuum|| = " + resN);
@@ -0,0 +1,369 @@
+package sm.solvers;
+
+import java.util.Arrays;
+import sm.CRS;
+import sm.Parallel;
+import sm.SparseMatrix;
+import sm.SymmetricCRS;
+import sm.blas.Blas;
+
+/**
+ * Block-Jacobi preconditioner: couplings between blocks of unknowns (e.g.
+ * subdomains of a mesh) are dropped and every block is solved on its own,
+ * all blocks in parallel.
+ *
+ * Blocks of up to DENSE_MAX unknowns are solved exactly by a dense LU
+ * factorization, larger ones approximately by symmetric Gauss-Seidel
+ * sweeps started from zero (which keeps M symmetric for PCG).
+ *
+ * @author jstar
+ */
+public class BlockJacobi implements Preconditioner {
+
+    public static final int DENSE_MAX = 128;
+
+    private final int[] blockOf;
+    private final int blockSize;
+    private int sweeps = 2;
+    private Block[] blocks;
+
+    /**
+     * @param blockOf block number of every unknown
+     */
+    public BlockJacobi(int[] blockOf) {
+        this.blockOf = blockOf;
+        this.blockSize = 0;
+    }
+
+    /**
+     * Blocks of blockSize consecutive unknowns (local after a bandwidth
+     * reducing ordering like RCM).
+     */
+    public BlockJacobi(int blockSize) {
+        if (blockSize < 1) {
+            throw new IllegalArgumentException("BlockJacobi: block size must be positive");
+        }
+        this.blockOf = null;
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * Number of symmetric Gauss-Seidel sweeps for blocks too large for a
+     * dense factorization.
+     */
+    public void setSweeps(int sweeps) {
+        this.sweeps = sweeps;
+    }
+
+    private static class Block {
+
+        int[] rows;       // global indices
+        int[] ia, ja;     // local matrix, local column indices
+        double[] a;
+        int[] diag;       // position of the diagonal in every local row
+        double[] lu;      // dense LU (row-major) of small blocks, null otherwise
+        int[] piv;
+        double[] r, z;    // local work vectors
+        Block t;          // transposed local matrix, built on first applyTransposed
+    }
+
+    @Override
+    public void setup(SparseMatrix A) {
+        CRS m;
+        if (A instanceof CRS) {
+            m = (CRS) A;
+        } else if (A instanceof SymmetricCRS) {
+            m = ((SymmetricCRS) A).toCRS();
+        } else {
+            throw new IllegalArgumentException("BlockJacobi: CRS or SymmetricCRS needed, got " + A.getClass().getSimpleName());
+        }
+        int n = m.nRows();
+        int[] owner = blockOf;
+        if (owner == null) {
+            owner = new int[n];
+            for (int i = 0; i < n; i++) {
+                owner[i] = i / blockSize;
+            }
+        } else if (owner.length != n) {
+            throw new IllegalArgumentException("BlockJacobi: " + owner.length + " block numbers for " + n + " unknowns");
+        }
+        int nb = 0;
+        for (int i = 0; i < n; i++) {
+            nb = Math.max(nb, owner[i] + 1);
+        }
+        int[] size = new int[nb];
+        int[] local = new int[n];
+        for (int i = 0; i < n; i++) {
+            local[i] = size[owner[i]]++;
+        }
+        blocks = new Block[nb];
+        for (int b = 0; b < nb; b++) {
+            blocks[b] = new Block();
+            blocks[b].rows = new int[size[b]];
+        }
+        for (int i = 0; i < n; i++) {
+            blocks[owner[i]].rows[local[i]] = i;
+        }
+        final int[] own = owner;
+        final int[] ia = m.getRowPointers(), ja = m.getColumnIndices();
+        final double[] a = m.getValues();
+        if (Blas.isParallel()) {
+            Parallel.forEach(nb, b -> setupBlock(blocks[b], b, own, local, ia, ja, a));
+        } else {
+            for (int b = 0; b < nb; b++) {
+                setupBlock(blocks[b], b, own, local, ia, ja, a);
+            }
+        }
+    }
+
+    private static void setupBlock(Block blk, int b, int[] owner, int[] local, int[] ia, int[] ja, double[] a) {
+        int m = blk.rows.length;
+        blk.r = new double[m];
+        blk.z = new double[m];
+        if (m <= DENSE_MAX) {
+            double[] lu = new double[m * m];
+            for (int li = 0; li < m; li++) {
+                int i = blk.rows[li];
+                for (int k = ia[i]; k < ia[i + 1]; k++) {
+                    if (owner[ja[k]] == b) {
+                        lu[li * m + local[ja[k]]] += a[k];
+                    }
+                }
+            }
+            blk.piv = new int[m];
+            if (!factorize(lu, blk.piv, m)) {
+                throw new IllegalArgumentException("BlockJacobi: singular diagonal block");
+            }
+            blk.lu = lu;
+            return;
+        }
+        int[] lia = new int[m + 1];
+        for (int li = 0; li < m; li++) {
+            int i = blk.rows[li];
+            int cnt = 0;
+            for (int k = ia[i]; k < ia[i + 1]; k++) {
+                if (owner[ja[k]] == b) {
+                    cnt++;
+                }
+            }
+            lia[li + 1] = lia[li] + cnt;
+        }
+        int[] lja = new int[lia[m]];
+        double[] la = new double[lia[m]];
+        int[] diag = new int[m];
+        Arrays.fill(diag, -1);
+        for (int li = 0; li < m; li++) {
+            int i = blk.rows[li];
+            int p = lia[li];
+            for (int k = ia[i]; k < ia[i + 1]; k++) {
+                if (owner[ja[k]] == b) {
+                    lja[p] = local[ja[k]];
+                    la[p] = a[k];
+                    if (ja[k] == i) {
+                        diag[li] = p;
+                    }
+                    p++;
+                }
+            }
+            if (diag[li] < 0 || la[diag[li]] == 0.0) {
+                throw new IllegalArgumentException("BlockJacobi: zero diagonal in row " + i);
+            }
+        }
+        blk.ia = lia;
+        blk.ja = lja;
+        blk.a = la;
+        blk.diag = diag;
+    }
+
+    // in place LU with partial pivoting, row-major m x m; false if singular
+    static boolean factorize(double[] lu, int[] piv, int m) {
+        for (int k = 0; k < m; k++) {
+            int p = k;
+            for (int i = k + 1; i < m; i++) {
+                if (Math.abs(lu[i * m + k]) > Math.abs(lu[p * m + k])) {
+                    p = i;
+                }
+            }
+            piv[k] = p;
+            if (p != k) {
+                for (int j = 0; j < m; j++) {
+                    double t = lu[k * m + j];
+                    lu[k * m + j] = lu[p * m + j];
+                    lu[p * m + j] = t;
+                }
+            }
+            double d = lu[k * m + k];
+            if (d == 0.0) {
+                return false;
+            }
+            for (int i = k + 1; i < m; i++) {
+                double l = lu[i * m + k] /= d;
+                if (l != 0.0) {
+                    for (int j = k + 1; j < m; j++) {
+                        lu[i * m + j] -= l * lu[k * m + j];
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void apply(double[] r, double[] z) {
+        if (Blas.isParallel() && blocks.length > 1) {
+            Parallel.forEach(blocks.length, b -> applyBlock(blocks[b], r, z));
+        } else {
+            for (Block blk : blocks) {
+                applyBlock(blk, r, z);
+            }
+        }
+    }
+
+    /**
+     * z = M^-T r: transposed dense solves, sweeps on the transposed blocks
+     * (symmetric Gauss-Seidel on B^T is the transpose of the one on B).
+     */
+    @Override
+    public void applyTransposed(double[] r, double[] z) {
+        if (Blas.isParallel() && blocks.length > 1) {
+            Parallel.forEach(blocks.length, b -> applyBlockTransposed(blocks[b], r, z));
+        } else {
+            for (Block blk : blocks) {
+                applyBlockTransposed(blk, r, z);
+            }
+        }
+    }
+
+    private void applyBlockTransposed(Block blk, double[] r, double[] z) {
+        if (blk.lu != null) {
+            int m = blk.rows.length;
+            for (int li = 0; li < m; li++) {
+                blk.r[li] = r[blk.rows[li]];
+            }
+            solveDenseTransposed(blk.lu, blk.piv, m, blk.r, blk.z);
+            for (int li = 0; li < m; li++) {
+                z[blk.rows[li]] = blk.z[li];
+            }
+            return;
+        }
+        if (blk.t == null) {
+            blk.t = transpose(blk);
+        }
+        applyBlock(blk.t, r, z);
+    }
+
+    private static Block transpose(Block blk) {
+        int m = blk.rows.length;
+        Block t = new Block();
+        t.rows = blk.rows;
+        t.r = blk.r;
+        t.z = blk.z;
+        t.ia = new int[m + 1];
+        for (int k = 0; k < blk.ia[m]; k++) {
+            t.ia[blk.ja[k] + 1]++;
+        }
+        for (int i = 0; i < m; i++) {
+            t.ia[i + 1] += t.ia[i];
+        }
+        t.ja = new int[blk.ia[m]];
+        t.a = new double[blk.ia[m]];
+        t.diag = new int[m];
+        int[] next = Arrays.copyOf(t.ia, m);
+        for (int i = 0; i < m; i++) {
+            for (int k = blk.ia[i]; k < blk.ia[i + 1]; k++) {
+                int p = next[blk.ja[k]]++;
+                t.ja[p] = i;
+                t.a[p] = blk.a[k];
+                if (blk.ja[k] == i) {
+                    t.diag[i] = p;
+                }
+            }
+        }
+        return t;
+    }
+
+    private void applyBlock(Block blk, double[] r, double[] z) {
+        int m = blk.rows.length;
+        double[] lr = blk.r, lz = blk.z;
+        for (int li = 0; li < m; li++) {
+            lr[li] = r[blk.rows[li]];
+        }
+        if (blk.lu != null) {
+            solveDense(blk.lu, blk.piv, m, lr, lz);
+        } else {
+            Arrays.fill(lz, 0.0);
+            for (int s = 0; s < sweeps; s++) {
+                for (int li = 0; li < m; li++) {
+                    relax(blk, li, lr, lz);
+                }
+                for (int li = m - 1; li >= 0; li--) {
+                    relax(blk, li, lr, lz);
+                }
+            }
+        }
+        for (int li = 0; li < m; li++) {
+            z[blk.rows[li]] = lz[li];
+        }
+    }
+
+    private static void relax(Block blk, int li, double[] lr, double[] lz) {
+        double s = lr[li];
+        for (int k = blk.ia[li]; k < blk.ia[li + 1]; k++) {
+            s -= blk.a[k] * lz[blk.ja[k]];
+        }
+        int d = blk.diag[li];
+        lz[li] += s / blk.a[d];
+    }
+
+    // (P^T L U)^T x = b: U^T w = b, L^T v = w, x = P^T v
+    private static void solveDenseTransposed(double[] lu, int[] piv, int m, double[] b, double[] x) {
+        for (int i = 0; i < m; i++) {
+            double s = b[i];
+            for (int j = 0; j < i; j++) {
+                s -= lu[j * m + i] * x[j];
+            }
+            x[i] = s / lu[i * m + i];
+        }
+        for (int i = m - 2; i >= 0; i--) {
+            double s = x[i];
+            for (int j = i + 1; j < m; j++) {
+                s -= lu[j * m + i] * x[j];
+            }
+            x[i] = s;
+        }
+        for (int k = m - 1; k >= 0; k--) {
+            int p = piv[k];
+            if (p != k) {
+                double t = x[k];
+                x[k] = x[p];
+                x[p] = t;
+            }
+        }
+    }
+
+    static void solveDense(double[] lu, int[] piv, int m, double[] b, double[] x) {
+        System.arraycopy(b, 0, x, 0, m);
+        for (int k = 0; k < m; k++) {
+            int p = piv[k];
+            if (p != k) {
+                double t = x[k];
+                x[k] = x[p];
+                x[p] = t;
+            }
+        }
+        for (int i = 1; i < m; i++) {
+            double s = x[i];
+            for (int j = 0; j < i; j++) {
+                s -= lu[i * m + j] * x[j];
+            }
+            x[i] = s;
+        }
+        for (int i = m - 1; i >= 0; i--) {
+            double s = x[i];
+            for (int j = i + 1; j < m; j++) {
+                s -= lu[i * m + j] * x[j];
+            }
+            x[i] = s / lu[i * m + i];
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package sm.solvers;
+
+import sm.SparseMatrix;
+
+/**
+ * Solver which keeps a factorization of A: factorize once, then solve for
+ * any number of right hand sides, two triangular sweeps each. The symbolic
+ * part (ordering, patterns) is kept too and reused while the structure of A
+ * does not change.
+ *
+ * @author jstar
+ */
+public interface DirectSolver extends Solver {
+
+    /**
+     * Factorizes A (with a new symbolic analysis if the structure of A is not
+     * the analysed one).
+     */
+    void factorize(SparseMatrix A);
+
+    /**
+     * Factorizes A after its values have changed. The default does the same
+     * as factorize; solvers with a cheaper numeric-only path override it.
+     */
+    default void refactorize(SparseMatrix A) {
+        factorize(A);
+    }
+
+    /**
+     * x = A^-1 b with the current factor.
+     */
+    void solve(double[] b, double[] x);
+}
@@ -0,0 +1,136 @@
+package sm.solvers;
+
+import java.util.Arrays;
+import sm.*;
+import sm.blas.Blas;
+
+/**
+ * Residual checks of the direct solvers on 2D grid problems: symmetric
+ * (Laplace) and non-symmetric (convection-diffusion) five-point stencils.
+ *
+ * @author jstar
+ */
+public class DirectSolverTest {
+
+    private static final java.util.Random rg = new java.util.Random();
+
+    /**
+     * Five-point stencil on a g x g grid, convection c (c = 0: symmetric).
+     */
+    public static CRS makeGrid(int g, double c) {
+        int n = g * g;
+        COOBuilder coo = new COOBuilder(n, n);
+        COOBuilder.Batch b = coo.newBatch(5 * n);
+        for (int i = 0; i < g; i++) {
+            for (int j = 0; j < g; j++) {
+                int k = i * g + j;
+                b.add(k, k, 4.0);
+                if (i > 0) {
+                    b.add(k, k - g, -1.0 - c);
+                }
+                if (i < g - 1) {
+                    b.add(k, k + g, -1.0 + c);
+                }
+                if (j > 0) {
+                    b.add(k, k - 1, -1.0 - c);
+                }
+                if (j < g - 1) {
+                    b.add(k, k + 1, -1.0 + c);
+                }
+            }
+        }
+        return coo.build();
+    }
+
+    private static double relResidual(CRS A, double[] b, double[] x) {
+        double bn = 0.0;
+        for (double v : b) {
+            bn += v * v;
+        }
+        return A.residual(b, x, new double[b.length]) / Math.sqrt(bn);
+    }
+
+    private static void check(String what, double res) {
+        System.out.println(what + ": relative residual " + res + (res < 1e-10 ? "" : "  <- FAILED"));
+    }
+
+    public static void main(String[] args) {
+        int g = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        int n = g * g;
+        double[] b = new double[n];
+        for (int i = 0; i < n; i++) {
+            b[i] = rg.nextDouble();
+        }
+        System.out.println("n=" + n);
+
+        CRS lap = makeGrid(g, 0.0);
+        CRS conv = makeGrid(g, 0.5);
+
+        // Cholesky: factorize, solve for two right hand sides, refactorize with new values
+        SparseCholesky chol = new SparseCholesky();
+        chol.factorize(lap);
+        double[] x = new double[n];
+        chol.solve(b, x);
+        check("SparseCholesky, Laplace", relResidual(lap, b, x));
+        double[] b2 = new double[n];
+        Arrays.fill(b2, 1.0);
+        chol.solve(b2, x);
+        check("SparseCholesky, second right hand side", relResidual(lap, b2, x));
+        CRS lap2 = lap.copy();
+        for (int i = 0; i < n; i++) {
+            lap2.addTo(i, i, rg.nextDouble());
+        }
+        check("SparseCholesky refactorize, new values", relResidual(lap2, b, chol.solve(lap2, b, 0, 0)));
+        check("SparseCholesky, SymmetricCRS", relResidual(lap, b, chol.solve(SymmetricCRS.upperOf(lap), b, 0, 0)));
+        boolean parallel = Blas.isParallel();
+        int threads = Parallel.getNoThreads();
+        Blas.setParallel(true);
+        Parallel.setNoThreads(Math.max(threads, 4));
+        check("SparseCholesky, parallel", relResidual(lap, b, chol.solve(lap, b, 0, 0)));
+        Parallel.setNoThreads(threads);
+        Blas.setParallel(parallel);
+        CRS indefinite = lap.copy();
+        indefinite.addTo(n - 1, n - 1, -8.0);
+        try {
+            chol.factorize(indefinite);
+            System.out.println("SparseCholesky, indefinite matrix: accepted  <- FAILED");
+        } catch (IllegalArgumentException e) {
+            System.out.println("SparseCholesky, indefinite matrix: " + e.getMessage());
+        }
+        try {
+            chol.solve(b, x);
+            System.out.println("SparseCholesky, solve after failure: accepted  <- FAILED");
+        } catch (IllegalStateException e) {
+            System.out.println("SparseCholesky, solve after failure: " + e.getMessage());
+        }
+
+        // LU: factorize, refactorize with new values, solve on other storage formats
+        SparseLU lu = new SparseLU();
+        check("SparseLU, convection-diffusion", relResidual(conv, b, lu.solve(conv, b, 0, 0)));
+        CRS conv2 = conv.copy();
+        for (int i = 0; i < n; i++) {
+            conv2.addTo(i, i, rg.nextDouble());
+        }
+        check("SparseLU refactorize, new values", relResidual(conv2, b, lu.solve(conv2, b, 0, 0)));
+        check("SparseLU, Laplace as SymmetricCRS", relResidual(lap, b, lu.solve(SymmetricCRS.upperOf(lap), b, 0, 0)));
+        check("SparseLU, Laplace as SELL", relResidual(lap, b, lu.solve(new SELL(lap), b, 0, 0)));
+
+        // a factorization which fails halfway must not leave a factor behind
+        CRS singular = conv.copy();
+        int[] ia = singular.getRowPointers();
+        Arrays.fill(singular.getValues(), ia[n - 1], ia[n], 0.0);   // last row
+        try {
+            lu.factorize(singular);
+            System.out.println("SparseLU, singular matrix: accepted  <- FAILED");
+        } catch (IllegalArgumentException e) {
+            System.out.println("SparseLU, singular matrix: " + e.getMessage());
+        }
+        try {
+            lu.solve(b, new double[n]);
+            System.out.println("SparseLU, solve after failure: accepted  <- FAILED");
+        } catch (IllegalStateException e) {
+            System.out.println("SparseLU, solve after failure: " + e.getMessage());
+        }
+        check("SparseLU after failure", relResidual(conv, b, lu.solve(conv, b, 0, 0)));
+    }
+}
@@ -6,108 +6,131 @@ package sm.solvers;
  */
 import java.util.Arrays;
 import sm.SparseMatrix;
+import sm.blas.Blas;
 
 public class GMRES implements Solver {
-    
-    @Override
-    public double[] solve(SparseMatrix A, double[] b, double tol, int maxIter ) {
-        int n = b.length;
-        double[] x = new double[n];
-        double[] r = vectorSubtract(b, A.multiply(x));
-        double beta = norm(r);
-
-        if (beta < tol) {
-            return x;
-        }
-
-        double[][] V = new double[maxIter + 1][n];
-        double[][] H = new double[maxIter + 1][maxIter];
-        double[] cs = new double[maxIter];
-        double[] sn = new double[maxIter];
-        double[] e1 = new double[maxIter + 1];
-        e1[0] = beta;
-
-        V[0] = scalarMultiply(r, 1.0 / beta);
-
-        for (int iter = 0; iter < maxIter; iter++) {
-            double[] w = A.multiply(V[iter]);
-
-            for (int i = 0; i <= iter; i++) {
-                H[i][iter] = dot(w, V[i]);
-                w = vectorSubtract(w, scalarMultiply(V[i], H[i][iter]));
-            }
-
-            H[iter + 1][iter] = norm(w);
-
-            if (H[iter + 1][iter] != 0.0) {
-                V[iter + 1] = scalarMultiply(w, 1.0 / H[iter + 1][iter]);
-            }
-
-            // Apply Givens rotations
-            for (int i = 0; i < iter; i++) {
-                double temp = cs[i] * H[i][iter] + sn[i] * H[i + 1][iter];
-                H[i + 1][iter] = -sn[i] * H[i][iter] + cs[i] * H[i + 1][iter];
-                H[i][iter] = temp;
-            }
-
-            // Compute new Givens rotation
-            double rVal = Math.hypot(H[iter][iter], H[iter + 1][iter]);
-            cs[iter] = H[iter][iter] / rVal;
-            sn[iter] = H[iter + 1][iter] / rVal;
-            H[iter][iter] = rVal;
-            H[iter + 1][iter] = 0.0;
 
-            // Update the residual
-            e1[iter + 1] = -sn[iter] * e1[iter];
-            e1[iter] = cs[iter] * e1[iter];
+    private final int restart;
+    private final Preconditioner M;
 
-            if (Math.abs(e1[iter + 1]) < tol) {
-                return updateSolution(x, V, H, e1, iter + 1);
-            }
-        }
+    public GMRES() {
+        this(50);
+    }
 
-        System.out.println("GMRES: in " + maxIter + " iterations error dropped to " + Math.abs(e1[maxIter]));
-        return updateSolution(x, V, H, e1, maxIter);
+    public GMRES(int restart) {
+        this(restart, Preconditioner.NONE);
     }
 
-    private static double[] updateSolution(double[] x, double[][] V, double[][] H, double[] e1, int k) {
-        double[] y = backSubstitute(H, Arrays.copyOf(e1, k), k);
-        for (int i = 0; i < k; i++) {
-            x = vectorAdd(x, scalarMultiply(V[i], y[i]));
+    /**
+     * GMRES(m): the Krylov basis is discarded after m iterations and the
+     * method is restarted from the current solution, so memory is O(m n)
+     * whatever the iteration limit. M is applied from the right (A M^-1 u =
+     * b, x = M^-1 u), so the residual checked against tol is the true one.
+     */
+    public GMRES(int restart, Preconditioner M) {
+        if (restart < 1) {
+            throw new IllegalArgumentException("GMRES: restart length must be positive");
         }
-        return x;
+        this.restart = restart;
+        this.M = M;
     }
 
-    private static double[] vectorAdd(double[] a, double[] b) {
-        double[] r = new double[a.length];
-        for (int i = 0; i < a.length; i++) r[i] = a[i] + b[i];
-        return r;
+    public int getRestart() {
+        return restart;
     }
 
-    private static double[] vectorSubtract(double[] a, double[] b) {
-        double[] r = new double[a.length];
-        for (int i = 0; i < a.length; i++) r[i] = a[i] - b[i];
-        return r;
+    public Preconditioner getPreconditioner() {
+        return M;
     }
 
-    private static double[] scalarMultiply(double[] v, double alpha) {
-        double[] r = new double[v.length];
-        for (int i = 0; i < v.length; i++) r[i] = v[i] * alpha;
-        return r;
-    }
+    @Override
+    public double[] solve(SparseMatrix A, double[] b, double tol, int maxIter ) {
+        int n = b.length;
+        int m = Math.max(1, Math.min(restart, maxIter));
+        double[] x = new double[n];
+        double[][] V = new double[m + 1][n];
+        double[][] H = new double[m + 1][m];
+        double[] cs = new double[m];
+        double[] sn = new double[m];
+        double[] e1 = new double[m + 1];
+        double[] y = new double[m];
+        double[] t = new double[n];
+
+        int iters = 0;
+        double beta = A.residual(b, x, V[0]);
+        if (beta >= tol) {
+            M.setup(A);
+        }
+        while (beta >= tol && iters < maxIter) {
+            Arrays.fill(e1, 0.0);
+            e1[0] = beta;
+            Blas.scal(1.0 / beta, V[0]);
+
+            int k = 0;
+            while (k < m && iters < maxIter) {
+                double[] w = V[k + 1];
+                M.apply(V[k], t);
+                A.multiply(t, w);
+                iters++;
+
+                // modified Gram-Schmidt
+                for (int i = 0; i <= k; i++) {
+                    H[i][k] = Blas.dot(w, V[i]);
+                    Blas.axpy(-H[i][k], V[i], w);
+                }
+
+                H[k + 1][k] = Blas.nrm2(w);
+
+                if (H[k + 1][k] != 0.0) {
+                    Blas.scal(1.0 / H[k + 1][k], w);
+                }
+
+                // Apply Givens rotations
+                for (int i = 0; i < k; i++) {
+                    double temp = cs[i] * H[i][k] + sn[i] * H[i + 1][k];
+                    H[i + 1][k] = -sn[i] * H[i][k] + cs[i] * H[i + 1][k];
+                    H[i][k] = temp;
+                }
+
+                // Compute new Givens rotation
+                double rVal = Math.hypot(H[k][k], H[k + 1][k]);
+                cs[k] = H[k][k] / rVal;
+                sn[k] = H[k + 1][k] / rVal;
+                H[k][k] = rVal;
+                H[k + 1][k] = 0.0;
+
+                // Update the residual
+                e1[k + 1] = -sn[k] * e1[k];
+                e1[k] = cs[k] * e1[k];
+                k++;
+
+                if (Math.abs(e1[k]) < tol) {
+                    break;
+                }
+            }
+            updateSolution(x, V, H, e1, y, k, t);
+            beta = A.residual(b, x, V[0]);   // true residual, start of the next cycle
+        }
 
-    private static double dot(double[] a, double[] b) {
-        double sum = 0.0;
-        for (int i = 0; i < a.length; i++) sum += a[i] * b[i];
-        return sum;
+        if (beta >= tol) {
+            System.out.println("GMRES(" + m + "): in " + maxIter + " iterations error dropped to " + beta);
+        }
+        return x;
     }
 
-    private static double norm(double[] v) {
-        return Math.sqrt(dot(v, v));
+    // x += M^-1 V y; V[m] is not needed any more and serves as scratch
+    private void updateSolution(double[] x, double[][] V, double[][] H, double[] e1, double[] y, int k, double[] t) {
+        backSubstitute(H, e1, y, k);
+        Blas.zero(t);
+        for (int i = 0; i < k; i++) {
+            Blas.axpy(y[i], V[i], t);
+        }
+        double[] u = V[V.length - 1];
+        M.apply(t, u);
+        Blas.axpy(1.0, u, x);
     }
 
-    private static double[] backSubstitute(double[][] H, double[] g, int k) {
-        double[] y = new double[k];
+    private static void backSubstitute(double[][] H, double[] g, double[] y, int k) {
         for (int i = k - 1; i >= 0; i--) {
             y[i] = g[i];
             for (int j = i + 1; j < k; j++) {
@@ -115,6 +138,5 @@ public class GMRES implements Solver {
             }
             y[i] /= H[i][i];
         }
-        return y;
     }
 }
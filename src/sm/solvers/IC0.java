@@ -0,0 +1,79 @@
+package sm.solvers;
+
+import java.util.Arrays;
+import sm.CRS;
+import sm.SparseMatrix;
+import sm.blas.Blas;
+
+/**
+ * IC(0) preconditioner for symmetric positive definite A: incomplete
+ * factorization A ~ L D L^T on the pattern of A, symmetric, so it may be
+ * used with PCG. Only the lower triangle of A is read. Factorization and
+ * triangular solves are level scheduled and parallel when Blas is.
+ *
+ * @author jstar
+ */
+public class IC0 implements Preconditioner {
+
+    private IncompleteFactor f;
+
+    @Override
+    public void setup(SparseMatrix A) {
+        CRS m = IncompleteFactor.crsOf(A, "IC0");
+        if (f == null || !f.isFor(m.getPattern())) {
+            f = IncompleteFactor.symmetricOf(m.getPattern(), "IC0");
+        }
+        f.load(m.getValues());
+        final IncompleteFactor ldl = f;
+        boolean parallel = Blas.isParallel();
+        ldl.lower.run(parallel, (rows, from, to) -> {
+            for (int t = from; t < to; t++) {
+                factorRow(ldl, rows[t]);
+            }
+        });
+        // U = L^T (the pattern is symmetric); each upper entry is written by exactly one row of L
+        ldl.lower.run(parallel, (rows, from, to) -> {
+            for (int t = from; t < to; t++) {
+                int i = rows[t];
+                for (int k = ldl.ia[i]; k < ldl.diag[i]; k++) {
+                    int c = ldl.ja[k];
+                    ldl.a[Arrays.binarySearch(ldl.ja, ldl.diag[c] + 1, ldl.ia[c + 1], i)] = ldl.a[k];
+                }
+            }
+        });
+    }
+
+    private static void factorRow(IncompleteFactor f, int i) {
+        int[] ia = f.ia, ja = f.ja, diag = f.diag;
+        double[] a = f.a;
+        double d = a[diag[i]];
+        for (int k = ia[i]; k < diag[i]; k++) {
+            int c = ja[k];
+            // l(i,c) = (a(i,c) - sum_{p<c} l(i,p) d(p) l(c,p)) / d(c)
+            double s = a[k];
+            int p = ia[i], q = ia[c], qEnd = diag[c];
+            while (p < k && q < qEnd) {
+                if (ja[p] < ja[q]) {
+                    p++;
+                } else if (ja[p] > ja[q]) {
+                    q++;
+                } else {
+                    s -= a[p++] * a[diag[ja[q]]] * a[q++];
+                }
+            }
+            double l = s * f.invD[c];
+            a[k] = l;
+            d -= l * l * a[diag[c]];
+        }
+        if (!(d > 0.0)) {
+            throw new IllegalArgumentException("IC0: matrix is not positive definite (pivot " + d + " in row " + i + ")");
+        }
+        a[diag[i]] = d;
+        f.invD[i] = 1.0 / d;
+    }
+
+    @Override
+    public void apply(double[] r, double[] z) {
+        f.solve(r, z, Blas.isParallel());
+    }
+}
@@ -0,0 +1,82 @@
+package sm.solvers;
+
+import sm.CRS;
+import sm.SparseMatrix;
+import sm.blas.Blas;
+
+/**
+ * ILU(0) preconditioner: LU factorization of A keeping only the entries on
+ * the sparsity pattern of A. Row i of the factors depends only on the rows
+ * of L(i,:), so the factorization runs level by level like the forward
+ * substitution (see LevelSchedule); factorization and both triangular
+ * solves are parallel when Blas is.
+ *
+ * The symbolic part is reused as long as A keeps the same CRSPattern.
+ *
+ * @author jstar
+ */
+public class ILU0 implements Preconditioner {
+
+    private IncompleteFactor f;
+    private IncompleteFactor ft;   // factor of A^T, built on first applyTransposed
+
+    @Override
+    public void setup(SparseMatrix A) {
+        CRS m = IncompleteFactor.crsOf(A, "ILU0");
+        if (f == null || !f.isFor(m.getPattern())) {
+            f = IncompleteFactor.of(m.getPattern(), "ILU0");
+        }
+        f.load(m.getValues());
+        final IncompleteFactor lu = f;
+        lu.lower.run(Blas.isParallel(), (rows, from, to) -> {
+            for (int t = from; t < to; t++) {
+                factorRow(lu, rows[t]);
+            }
+        });
+        ft = null;
+    }
+
+    private static void factorRow(IncompleteFactor f, int i) {
+        int[] ia = f.ia, ja = f.ja, diag = f.diag;
+        double[] a = f.a;
+        int end = ia[i + 1];
+        for (int k = ia[i]; k < diag[i]; k++) {
+            int c = ja[k];
+            double l = a[k] * f.invD[c];
+            a[k] = l;
+            double lu = l * a[diag[c]];
+            // a(i,j) -= l(i,c) u(c,j) for j > c on the pattern: merge of two sorted rows
+            int p = k + 1, q = diag[c] + 1, qEnd = ia[c + 1];
+            while (p < end && q < qEnd) {
+                if (ja[p] < ja[q]) {
+                    p++;
+                } else if (ja[p] > ja[q]) {
+                    q++;
+                } else {
+                    a[p++] -= lu * a[q++];
+                }
+            }
+        }
+        double d = a[diag[i]];
+        if (d == 0.0) {
+            throw new IllegalArgumentException("ILU0: zero pivot in row " + i);
+        }
+        f.invD[i] = 1.0 / d;
+        for (int k = diag[i] + 1; k < end; k++) {
+            a[k] *= f.invD[i];
+        }
+    }
+
+    @Override
+    public void apply(double[] r, double[] z) {
+        f.solve(r, z, Blas.isParallel());
+    }
+
+    @Override
+    public void applyTransposed(double[] r, double[] z) {
+        if (ft == null) {
+            ft = f.transpose();
+        }
+        ft.solve(r, z, Blas.isParallel());
+    }
+}
@@ -0,0 +1,238 @@
+package sm.solvers;
+
+import java.util.Arrays;
+import sm.CRS;
+import sm.CRSPattern;
+import sm.HashSM;
+import sm.SELL;
+import sm.SparseMatrix;
+import sm.SymmetricCRS;
+
+/**
+ * Incomplete factorization A ~ L D U on the pattern of A (plus the
+ * diagonal), shared by ILU0 and IC0. L and U have unit diagonals and are
+ * stored in one CRS with sorted rows: strictly lower entries hold L,
+ * strictly upper entries hold U and the diagonal entries hold D.
+ *
+ * @author jstar
+ */
+final class IncompleteFactor {
+
+    final int n;
+    final int[] ia, ja;
+    final int[] diag;        // position of the diagonal in every row
+    final double[] a;
+    final double[] invD;
+    final LevelSchedule lower, upper;
+    private final CRSPattern source;
+    private final int[] map; // entry k of the source pattern is a[map[k]]
+
+    private IncompleteFactor(int[] ia, int[] ja, int[] diag, double[] invD, CRSPattern source, int[] map) {
+        this.n = diag.length;
+        this.ia = ia;
+        this.ja = ja;
+        this.diag = diag;
+        this.a = new double[ja.length];
+        this.invD = invD;
+        this.source = source;
+        this.map = map;
+        lower = new LevelSchedule(ia, ja, diag, true);
+        upper = new LevelSchedule(ia, ja, diag, false);
+    }
+
+    static CRS crsOf(SparseMatrix A, String who) {
+        if (A instanceof CRS) {
+            return (CRS) A;
+        } else if (A instanceof SymmetricCRS) {
+            return ((SymmetricCRS) A).toCRS();
+        } else if (A instanceof HashSM) {
+            return ((HashSM) A).toCRS();
+        } else if (A instanceof SELL) {
+            return ((SELL) A).toCRS();
+        }
+        throw new IllegalArgumentException(who + ": CRS, SymmetricCRS, HashSM or SELL needed, got " + A.getClass().getSimpleName());
+    }
+
+    /**
+     * Symbolic part: sorted copy of the pattern with all diagonal entries.
+     */
+    static IncompleteFactor of(CRSPattern p, String who) {
+        int n = p.nRows();
+        if (p.nCols() != n) {
+            throw new IllegalArgumentException(who + ": square matrix needed");
+        }
+        int[] sia = p.getRowPointers();
+        int[] sja = p.getColumnIndices();
+        int[] ia = new int[n + 1];
+        int[] ja = new int[sia[n] + n];
+        int[] diag = new int[n];
+        int nz = 0;
+        for (int i = 0; i < n; i++) {
+            int start = nz;
+            for (int k = sia[i]; k < sia[i + 1]; k++) {
+                ja[nz++] = sja[k];
+            }
+            ja[nz++] = i;
+            Arrays.sort(ja, start, nz);
+            int last = start;
+            for (int k = start + 1; k < nz; k++) {
+                if (ja[k] != ja[last]) {
+                    ja[++last] = ja[k];
+                }
+            }
+            nz = last + 1;
+            ia[i + 1] = nz;
+            diag[i] = Arrays.binarySearch(ja, start, nz, i);
+        }
+        ja = Arrays.copyOf(ja, nz);
+        int[] map = new int[sia[n]];
+        for (int i = 0; i < n; i++) {
+            for (int k = sia[i]; k < sia[i + 1]; k++) {
+                map[k] = Arrays.binarySearch(ja, ia[i], ia[i + 1], sja[k]);
+            }
+        }
+        return new IncompleteFactor(ia, ja, diag, new double[n], p, map);
+    }
+
+    /**
+     * Symbolic part for a symmetric factor: the lower triangle of the pattern
+     * and its transpose (plus the diagonal), so the result is structurally
+     * symmetric whatever the upper triangle of the pattern is. Values of the
+     * upper triangle are not loaded.
+     */
+    static IncompleteFactor symmetricOf(CRSPattern p, String who) {
+        int n = p.nRows();
+        if (p.nCols() != n) {
+            throw new IllegalArgumentException(who + ": square matrix needed");
+        }
+        int[] sia = p.getRowPointers();
+        int[] sja = p.getColumnIndices();
+        int[] tia = new int[n + 1];
+        for (int i = 0; i < n; i++) {
+            tia[i + 1]++;
+            for (int k = sia[i]; k < sia[i + 1]; k++) {
+                if (sja[k] < i) {
+                    tia[i + 1]++;
+                    tia[sja[k] + 1]++;
+                }
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            tia[i + 1] += tia[i];
+        }
+        int[] tja = new int[tia[n]];
+        int[] next = Arrays.copyOf(tia, n);
+        for (int i = 0; i < n; i++) {
+            tja[next[i]++] = i;
+            for (int k = sia[i]; k < sia[i + 1]; k++) {
+                if (sja[k] < i) {
+                    tja[next[i]++] = sja[k];
+                    tja[next[sja[k]]++] = i;
+                }
+            }
+        }
+        int[] ia = new int[n + 1];
+        int[] ja = new int[tja.length];
+        int[] diag = new int[n];
+        int nz = 0;
+        for (int i = 0; i < n; i++) {
+            Arrays.sort(tja, tia[i], tia[i + 1]);
+            for (int k = tia[i]; k < tia[i + 1]; k++) {
+                if (nz == ia[i] || ja[nz - 1] != tja[k]) {
+                    ja[nz++] = tja[k];
+                }
+            }
+            ia[i + 1] = nz;
+            diag[i] = Arrays.binarySearch(ja, ia[i], nz, i);
+        }
+        ja = Arrays.copyOf(ja, nz);
+        int[] map = new int[sia[n]];
+        for (int i = 0; i < n; i++) {
+            for (int k = sia[i]; k < sia[i + 1]; k++) {
+                map[k] = sja[k] <= i ? Arrays.binarySearch(ja, ia[i], ia[i + 1], sja[k]) : -1;
+            }
+        }
+        return new IncompleteFactor(ia, ja, diag, new double[n], p, map);
+    }
+
+    boolean isFor(CRSPattern p) {
+        return source == p;
+    }
+
+    /**
+     * Copies values of a matrix with the source pattern (duplicates are
+     * summed, entries mapped to -1 skipped).
+     */
+    void load(double[] values) {
+        Arrays.fill(a, 0.0);
+        for (int k = 0; k < map.length; k++) {
+            if (map[k] >= 0) {
+                a[map[k]] += values[k];
+            }
+        }
+    }
+
+    /**
+     * z = (L D U)^-1 r
+     */
+    void solve(double[] r, double[] z, boolean parallel) {
+        lower.run(parallel, (rows, from, to) -> forward(r, z, rows, from, to));
+        upper.run(parallel, (rows, from, to) -> backward(z, rows, from, to));
+    }
+
+    // L w = r
+    private void forward(double[] r, double[] z, int[] rows, int from, int to) {
+        for (int t = from; t < to; t++) {
+            int i = rows[t];
+            double s = r[i];
+            for (int k = ia[i]; k < diag[i]; k++) {
+                s -= a[k] * z[ja[k]];
+            }
+            z[i] = s;
+        }
+    }
+
+    // U z = D^-1 w
+    private void backward(double[] z, int[] rows, int from, int to) {
+        for (int t = from; t < to; t++) {
+            int i = rows[t];
+            double s = invD[i] * z[i];
+            for (int k = diag[i] + 1; k < ia[i + 1]; k++) {
+                s -= a[k] * z[ja[k]];
+            }
+            z[i] = s;
+        }
+    }
+
+    /**
+     * Factor of A^T: (L D U)^T = U^T D L^T.
+     */
+    IncompleteFactor transpose() {
+        int[] tia = new int[n + 1];
+        for (int k = 0; k < ia[n]; k++) {
+            tia[ja[k] + 1]++;
+        }
+        for (int i = 0; i < n; i++) {
+            tia[i + 1] += tia[i];
+        }
+        int[] tja = new int[ia[n]];
+        int[] pos = new int[ia[n]];
+        int[] next = Arrays.copyOf(tia, n);
+        int[] tdiag = new int[n];
+        for (int i = 0; i < n; i++) {
+            for (int k = ia[i]; k < ia[i + 1]; k++) {
+                int j = ja[k];
+                if (j == i) {
+                    tdiag[i] = next[j];
+                }
+                pos[k] = next[j];
+                tja[next[j]++] = i;
+            }
+        }
+        IncompleteFactor t = new IncompleteFactor(tia, tja, tdiag, invD, null, null);
+        for (int k = 0; k < ia[n]; k++) {
+            t.a[pos[k]] = a[k];
+        }
+        return t;
+    }
+}
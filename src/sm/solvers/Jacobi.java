@@ -0,0 +1,77 @@
+package sm.solvers;
+
+import sm.CRS;
+import sm.Parallel;
+import sm.SparseMatrix;
+import sm.SymmetricCRS;
+import sm.blas.Blas;
+
+/**
+ * Diagonal (Jacobi) preconditioner: z = D^-1 r. Rows with a zero diagonal
+ * are passed unchanged. Parallel when Blas is.
+ *
+ * @author jstar
+ */
+public class Jacobi implements Preconditioner {
+
+    private static final int PARALLEL_MIN = 1 << 16;
+
+    private double[] invDiag;
+
+    @Override
+    public void setup(SparseMatrix A) {
+        int n = A.nRows();
+        if (invDiag == null || invDiag.length != n) {
+            invDiag = new double[n];
+        }
+        double[] d = diagonal(A, invDiag);
+        for (int i = 0; i < n; i++) {
+            d[i] = d[i] != 0.0 ? 1.0 / d[i] : 1.0;
+        }
+    }
+
+    /**
+     * Diagonal of A into d, read directly from the storage of CRS and
+     * SymmetricCRS.
+     */
+    static double[] diagonal(SparseMatrix A, double[] d) {
+        int n = A.nRows();
+        if (A instanceof SymmetricCRS) {
+            SymmetricCRS s = (SymmetricCRS) A;
+            int[] ia = s.getRowPointers();
+            double[] a = s.getValues();
+            for (int i = 0; i < n; i++) {
+                d[i] = a[ia[i]];
+            }
+        } else if (A instanceof CRS) {
+            CRS c = (CRS) A;
+            double[] a = c.getValues();
+            for (int i = 0; i < n; i++) {
+                int k = c.indexOf(i, i);
+                d[i] = k < 0 ? 0.0 : a[k];
+            }
+        } else {
+            for (int i = 0; i < n; i++) {
+                d[i] = A.get(i, i);
+            }
+        }
+        return d;
+    }
+
+    @Override
+    public void apply(double[] r, double[] z) {
+        final int n = invDiag.length;
+        if (!Blas.isParallel() || n < PARALLEL_MIN || Parallel.getNoThreads() == 1) {
+            scale(r, z, 0, n);
+            return;
+        }
+        final int nt = Parallel.getNoThreads();
+        Parallel.forEach(nt, t -> scale(r, z, (int) ((long) n * t / nt), (int) ((long) n * (t + 1) / nt)));
+    }
+
+    private void scale(double[] r, double[] z, int from, int to) {
+        for (int i = from; i < to; i++) {
+            z[i] = invDiag[i] * r[i];
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package sm.solvers;
+
+import sm.CRS;
+import sm.blas.Blas;
+
+/**
+ * Damped Jacobi smoother: x += omega D^-1 (b - A x). Symmetric and fully
+ * parallel (parallel matrix product and Blas).
+ *
+ * @author jstar
+ */
+public class JacobiSmoother implements Smoother {
+
+    private final double omega;
+    private final int sweeps;
+    private CRS A;
+    private final Jacobi jacobi = new Jacobi();
+    private double[] r, t;
+
+    public JacobiSmoother() {
+        this(2.0 / 3.0, 1);
+    }
+
+    public JacobiSmoother(double omega, int sweeps) {
+        if (sweeps < 1) {
+            throw new IllegalArgumentException("JacobiSmoother: number of sweeps must be positive");
+        }
+        this.omega = omega;
+        this.sweeps = sweeps;
+    }
+
+    @Override
+    public void setup(CRS A) {
+        this.A = A;
+        jacobi.setup(A);
+        r = new double[A.nRows()];
+        t = new double[A.nRows()];
+    }
+
+    @Override
+    public void presmooth(double[] b, double[] x) {
+        for (int s = 0; s < sweeps; s++) {
+            A.residual(b, x, r);
+            jacobi.apply(r, t);
+            Blas.axpy(omega, t, x);
+        }
+    }
+}
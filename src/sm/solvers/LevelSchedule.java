@@ -0,0 +1,90 @@
+package sm.solvers;
+
+import sm.Parallel;
+
+/**
+ * Rows of a triangular matrix grouped into levels: a row depends only on
+ * rows of earlier levels, so all rows of one level may be processed at the
+ * same time. Levels too short to be worth splitting are done by the calling
+ * thread.
+ *
+ * @author jstar
+ */
+final class LevelSchedule {
+
+    interface Rows {
+
+        /**
+         * Processes rows order[from..to).
+         */
+        void run(int[] order, int from, int to);
+    }
+
+    private static final int PARALLEL_MIN = 256;
+
+    private final int[] order;      // rows level by level
+    private final int[] levelPtr;   // level l is order[levelPtr[l]..levelPtr[l+1])
+    private final int[] sequential; // plain elimination order
+
+    /**
+     * Row i depends on columns ja[ia[i]..diag[i]) (lower) or
+     * ja[diag[i]+1..ia[i+1]) (upper) of the matrix.
+     */
+    LevelSchedule(int[] ia, int[] ja, int[] diag, boolean lower) {
+        int n = diag.length;
+        int[] level = new int[n];
+        int nLevels = 0;
+        for (int t = 0; t < n; t++) {
+            int i = lower ? t : n - 1 - t;
+            int from = lower ? ia[i] : diag[i] + 1;
+            int to = lower ? diag[i] : ia[i + 1];
+            int l = 0;
+            for (int k = from; k < to; k++) {
+                l = Math.max(l, level[ja[k]] + 1);
+            }
+            level[i] = l;
+            nLevels = Math.max(nLevels, l + 1);
+        }
+        levelPtr = new int[nLevels + 1];
+        for (int i = 0; i < n; i++) {
+            levelPtr[level[i] + 1]++;
+        }
+        for (int l = 0; l < nLevels; l++) {
+            levelPtr[l + 1] += levelPtr[l];
+        }
+        order = new int[n];
+        int[] next = java.util.Arrays.copyOf(levelPtr, nLevels);
+        for (int i = 0; i < n; i++) {
+            order[next[level[i]]++] = i;
+        }
+        sequential = new int[n];
+        for (int t = 0; t < n; t++) {
+            sequential[t] = lower ? t : n - 1 - t;
+        }
+    }
+
+    int nLevels() {
+        return levelPtr.length - 1;
+    }
+
+    /**
+     * Calls body for all rows, level after level if parallel, otherwise in
+     * plain order by the calling thread.
+     */
+    void run(boolean parallel, Rows body) {
+        int n = order.length;
+        int nt = Parallel.getNoThreads();
+        if (!parallel || nt == 1 || nLevels() == n) {
+            body.run(sequential, 0, n);
+            return;
+        }
+        for (int l = 0; l < nLevels(); l++) {
+            final int from = levelPtr[l], len = levelPtr[l + 1] - from;
+            if (len < PARALLEL_MIN) {
+                body.run(order, from, from + len);
+            } else {
+                Parallel.forEach(nt, c -> body.run(order, from + (int) ((long) len * c / nt), from + (int) ((long) len * (c + 1) / nt)));
+            }
+        }
+    }
+}
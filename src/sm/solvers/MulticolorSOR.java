@@ -0,0 +1,222 @@
+package sm.solvers;
+
+import java.util.Arrays;
+import sm.CRS;
+import sm.CRSPattern;
+import sm.Parallel;
+import sm.blas.Blas;
+
+/**
+ * Parallel SOR / Gauss-Seidel: rows are colored so that no two rows of one
+ * color are coupled, colors are swept one after another and all rows of a
+ * color at the same time (Blas.isParallel()). A forward sweep goes through
+ * colors 0, 1, ..., a backward one in reverse, so postsmooth is still the
+ * adjoint of presmooth.
+ *
+ * The default coloring is greedy over the graph of A (for FEM matrices this
+ * is the vertex adjacency of the mesh), rows visited in natural order. A
+ * precomputed coloring may be given instead.
+ *
+ * In deterministic mode (default) rows of a color are split into blocks of
+ * fixed size and the update norms of the blocks are added in order, so
+ * results do not depend on the number of threads; otherwise the work is
+ * split into one chunk per thread.
+ *
+ * @author jstar
+ */
+public class MulticolorSOR extends SOR {
+
+    private static final int BLOCK = 1024;
+
+    private final int[] givenColors;
+    private boolean deterministic = true;
+    private CRSPattern colored;   // pattern the coloring belongs to
+    private int[] order;          // rows color by color
+    private int[] colorPtr;       // color c is order[colorPtr[c]..colorPtr[c+1])
+    private double[] partial;
+
+    public MulticolorSOR(double omega) {
+        this(omega, Sweep.FORWARD);
+    }
+
+    public MulticolorSOR(double omega, Sweep sweep) {
+        super(omega, sweep);
+        this.givenColors = null;
+    }
+
+    /**
+     * @param color color of every row, rows coupled in A must differ
+     */
+    public MulticolorSOR(double omega, Sweep sweep, int[] color) {
+        super(omega, sweep);
+        this.givenColors = color;
+    }
+
+    public void setDeterministic(boolean flag) {
+        deterministic = flag;
+    }
+
+    public boolean isDeterministic() {
+        return deterministic;
+    }
+
+    public int getNoColors() {
+        return colorPtr == null ? 0 : colorPtr.length - 1;
+    }
+
+    @Override
+    public void setup(CRS A) {
+        super.setup(A);
+        CRSPattern p = A.getPattern();
+        if (p == colored) {
+            return;
+        }
+        int n = p.nRows();
+        int[] color = givenColors != null ? givenColors : greedyColoring(p);
+        if (givenColors != null) {
+            check(p, color);
+        }
+        int nColors = 0;
+        for (int c : color) {
+            nColors = Math.max(nColors, c + 1);
+        }
+        colorPtr = new int[nColors + 1];
+        for (int i = 0; i < n; i++) {
+            colorPtr[color[i] + 1]++;
+        }
+        int maxLen = 0;
+        for (int c = 0; c < nColors; c++) {
+            maxLen = Math.max(maxLen, colorPtr[c + 1]);
+            colorPtr[c + 1] += colorPtr[c];
+        }
+        order = new int[n];
+        int[] next = Arrays.copyOf(colorPtr, nColors);
+        for (int i = 0; i < n; i++) {
+            order[next[color[i]]++] = i;
+        }
+        partial = new double[Math.max((maxLen + BLOCK - 1) / BLOCK, Parallel.getNoThreads())];
+        colored = p;
+    }
+
+    /**
+     * Greedy coloring of the (symmetrized) graph of the pattern: row i gets
+     * the smallest color not used by any already colored row j with a_ij or
+     * a_ji non-zero.
+     */
+    public static int[] greedyColoring(CRSPattern p) {
+        int n = p.nRows();
+        int[] ia = p.getRowPointers(), ja = p.getColumnIndices();
+        // transposed pattern, needed for a non-symmetric structure
+        int[] tia = new int[n + 1];
+        for (int k = 0; k < ia[n]; k++) {
+            tia[ja[k] + 1]++;
+        }
+        for (int i = 0; i < n; i++) {
+            tia[i + 1] += tia[i];
+        }
+        int[] tja = new int[ia[n]];
+        int[] next = Arrays.copyOf(tia, n);
+        for (int i = 0; i < n; i++) {
+            for (int k = ia[i]; k < ia[i + 1]; k++) {
+                tja[next[ja[k]]++] = i;
+            }
+        }
+        int[] color = new int[n];
+        Arrays.fill(color, -1);
+        int[] usedBy = new int[n + 1];   // usedBy[c] == i: color c is taken by a neighbour of i
+        Arrays.fill(usedBy, -1);
+        for (int i = 0; i < n; i++) {
+            for (int k = ia[i]; k < ia[i + 1]; k++) {
+                if (color[ja[k]] >= 0) {
+                    usedBy[color[ja[k]]] = i;
+                }
+            }
+            for (int k = tia[i]; k < tia[i + 1]; k++) {
+                if (color[tja[k]] >= 0) {
+                    usedBy[color[tja[k]]] = i;
+                }
+            }
+            int c = 0;
+            while (usedBy[c] == i) {
+                c++;
+            }
+            color[i] = c;
+        }
+        return color;
+    }
+
+    private static void check(CRSPattern p, int[] color) {
+        int n = p.nRows();
+        if (color.length != n) {
+            throw new IllegalArgumentException("MulticolorSOR: " + color.length + " colors for " + n + " rows");
+        }
+        int[] ia = p.getRowPointers(), ja = p.getColumnIndices();
+        for (int i = 0; i < n; i++) {
+            if (color[i] < 0) {
+                throw new IllegalArgumentException("MulticolorSOR: negative color of row " + i);
+            }
+            for (int k = ia[i]; k < ia[i + 1]; k++) {
+                if (ja[k] != i && color[ja[k]] == color[i]) {
+                    throw new IllegalArgumentException("MulticolorSOR: coupled rows " + i + " and " + ja[k] + " have the same color");
+                }
+            }
+        }
+    }
+
+    @Override
+    public double forward(double[] b, double[] x) {
+        double du2 = 0.0;
+        for (int c = 0; c < getNoColors(); c++) {
+            du2 += sweepColor(c, b, x);
+        }
+        return du2;
+    }
+
+    @Override
+    public double backward(double[] b, double[] x) {
+        double du2 = 0.0;
+        for (int c = getNoColors() - 1; c >= 0; c--) {
+            du2 += sweepColor(c, b, x);
+        }
+        return du2;
+    }
+
+    // rows of one color are independent
+    private double sweepColor(int c, double[] b, double[] x) {
+        final int from = colorPtr[c], len = colorPtr[c + 1] - from;
+        final int nt = Parallel.getNoThreads();
+        final int nTasks;
+        if (deterministic) {
+            nTasks = (len + BLOCK - 1) / BLOCK;
+            if (Blas.isParallel() && nTasks > 1) {
+                Parallel.forEach(nTasks, t -> partial[t] = relaxRows(b, x, from + t * BLOCK, from + Math.min(len, (t + 1) * BLOCK)));
+            } else {
+                for (int t = 0; t < nTasks; t++) {
+                    partial[t] = relaxRows(b, x, from + t * BLOCK, from + Math.min(len, (t + 1) * BLOCK));
+                }
+            }
+        } else {
+            if (!Blas.isParallel() || len < BLOCK || nt == 1) {
+                return relaxRows(b, x, from, from + len);
+            }
+            nTasks = nt;
+            if (partial.length < nt) {
+                partial = new double[nt];
+            }
+            Parallel.forEach(nt, t -> partial[t] = relaxRows(b, x, from + (int) ((long) len * t / nt), from + (int) ((long) len * (t + 1) / nt)));
+        }
+        double du2 = 0.0;
+        for (int t = 0; t < nTasks; t++) {
+            du2 += partial[t];
+        }
+        return du2;
+    }
+
+    private double relaxRows(double[] b, double[] x, int from, int to) {
+        double du2 = 0.0;
+        for (int t = from; t < to; t++) {
+            du2 += relax(order[t], b, x);
+        }
+        return du2;
+    }
+}
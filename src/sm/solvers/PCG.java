@@ -0,0 +1,69 @@
+package sm.solvers;
+
+import sm.SparseMatrix;
+import sm.blas.Blas;
+
+/**
+ * Preconditioned Conjugate Gradients for symmetric positive definite
+ * matrices. Work vectors are kept between solves of the same size.
+ *
+ * @author jstar
+ */
+public class PCG implements Solver {
+
+    private final Preconditioner M;
+    private double[] r;
+    private double[] z;
+    private double[] p;
+    private double[] q;
+
+    public PCG() {
+        this(Preconditioner.NONE);
+    }
+
+    public PCG(Preconditioner M) {
+        this.M = M;
+    }
+
+    public Preconditioner getPreconditioner() {
+        return M;
+    }
+
+    @Override
+    public double[] solve(SparseMatrix A, double[] b, double tol, int maxIter) {
+        int n = b.length;
+        if (r == null || r.length != n) {
+            r = new double[n];
+            z = new double[n];
+            p = new double[n];
+            q = new double[n];
+        }
+        double[] x = new double[n];
+        double rn = A.residual(b, x, r);
+        if (rn < tol) {
+            return x;
+        }
+        M.setup(A);
+        M.apply(r, z);
+        Blas.copy(z, p);
+        double rz = Blas.dot(r, z);
+
+        for (int k = 0; k < maxIter; k++) {
+            double alpha = rz / A.multiplyDot(p, q);
+            Blas.axpy(alpha, p, x);
+            Blas.axpy(-alpha, q, r);
+
+            rn = Blas.nrm2(r);
+            if (rn < tol) {
+                return x;
+            }
+
+            M.apply(r, z);
+            double rzNew = Blas.dot(r, z);
+            Blas.xpay(z, rzNew / rz, p);
+            rz = rzNew;
+        }
+        System.out.println("PCG: in " + maxIter + " iterations error dropped to " + rn);
+        return x;
+    }
+}
@@ -0,0 +1,45 @@
+package sm.solvers;
+
+import sm.SparseMatrix;
+
+/**
+ * Approximation M of a matrix A used by the Krylov solvers: they call
+ * setup(A) once per solve and apply(r, z) in every iteration.
+ *
+ * @author jstar
+ */
+public interface Preconditioner {
+
+    /**
+     * No preconditioning: z = r.
+     */
+    Preconditioner NONE = new Preconditioner() {
+        @Override
+        public void setup(SparseMatrix A) {
+        }
+
+        @Override
+        public void apply(double[] r, double[] z) {
+            if (z != r) {
+                System.arraycopy(r, 0, z, 0, r.length);
+            }
+        }
+    };
+
+    /**
+     * Builds M for A (values of A may have changed since the last call).
+     */
+    void setup(SparseMatrix A);
+
+    /**
+     * z = M^-1 r, r is left unchanged. Must not allocate.
+     */
+    void apply(double[] r, double[] z);
+
+    /**
+     * z = M^-T r, needed by BiCG. The default is right for symmetric M only.
+     */
+    default void applyTransposed(double[] r, double[] z) {
+        apply(r, z);
+    }
+}
@@ -0,0 +1,32 @@
+package sm.solvers;
+
+import sm.CRS;
+
+/**
+ * Relaxation used on every level of a multigrid cycle: a few cheap sweeps
+ * that damp the high frequency error of x in A x = b.
+ *
+ * @author jstar
+ */
+public interface Smoother {
+
+    /**
+     * Prepares the smoother for A (called once per level in AMG setup).
+     */
+    void setup(CRS A);
+
+    /**
+     * Improves x in place (before restriction to the coarse level).
+     */
+    void presmooth(double[] b, double[] x);
+
+    /**
+     * Improves x in place (after the coarse correction). Must be the adjoint
+     * of presmooth (e.g. backward after forward Gauss-Seidel) for the cycle
+     * to be symmetric, which PCG requires. The default is right for
+     * symmetric smoothers like Jacobi.
+     */
+    default void postsmooth(double[] b, double[] x) {
+        presmooth(b, x);
+    }
+}
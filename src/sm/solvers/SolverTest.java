@@ -1,10 +1,7 @@
 package sm.solvers;
 
 import java.io.FileWriter;
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
-import java.util.List;
 import sm.*;
 
 /**
@@ -31,64 +28,33 @@ public class SolverTest {
     }
 
     public static CRS makeCRS(int n, double sparsity) {
-        int[] ia = new int[n + 1];
-        List<Integer> jaList = new ArrayList<>();
+        COOBuilder coo = new COOBuilder(n, n);
+        COOBuilder.Batch batch = coo.newBatch((int) Math.min(Integer.MAX_VALUE - 8, (long) (sparsity * n) * n + n));
         int maxRow = (int) (2 * sparsity * n);
-        List<Integer> cols = new ArrayList<>();
+        int[] cols = new int[n];
         for (int i = 0; i < n; i++) {
-            cols.add(i);
+            cols[i] = i;
         }
-        for (int i = 1; i <= n; i++) {
-            Collections.shuffle(cols);
+        for (int i = 0; i < n; i++) {
             int rnz = rg.nextInt(1, maxRow);
             boolean diag = false;
-            for (int j = 0; j < rnz; j++) {
-                int k = cols.get(j);
-                if (k == i - 1) {
+            for (int j = 0; j < rnz; j++) {   // partial shuffle: cols[0..rnz) is a random subset
+                int s = j + rg.nextInt(n - j);
+                int k = cols[s];
+                cols[s] = cols[j];
+                cols[j] = k;
+                if (k == i) {
                     diag = true;
                 }
-                jaList.add(cols.get(j));
-            }
-            if (!diag) {
-                jaList.set(jaList.size() - 1, i - 1);
+                batch.add(i, diag || j < rnz - 1 ? k : i, rg.nextDouble());
             }
-            ia[i] = ia[i - 1] + rnz;
-        }
-
-        //System.out.println(ia[n]);
-        int[] ja = new int[jaList.size()];
-        double[] a = new double[jaList.size()];
-        for (int i = 0; i < jaList.size(); i++) {
-            ja[i] = jaList.get(i);
-            a[i] = rg.nextDouble();
+            batch.add(i, i, n);
         }
-
-        for (int i = 0; i < n; i++) {
-            for (int j = ia[i]; j < ia[i + 1]; j++) {
-                if (ja[j] == i) {
-                    a[j] += n;
-                }
-            }
-        }
-        return new CRS(ia, ja, a);
+        CRS m = coo.build();
+        m.setMergePath(true);   // row lengths vary from 1 to 2*sparsity*n
+        return m;
     }
    
-    private static double[] vectorSubtract(double[] a, double[] b) {
-        double[] result = new double[a.length];
-        for (int i = 0; i < a.length; i++) {
-            result[i] = a[i] - b[i];
-        }
-        return result;
-    }
-    
-    private static double norm(double[] a) {
-        double result = 0;
-        for (int i = 0; i < a.length; i++) {
-            result += a[i] * a[i];
-        }
-        return Math.sqrt(result);
-    }
-
     public static void main(String[] args) {
         int n = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
         double minSpars = 0.05;
@@ -136,8 +102,7 @@ public class SolverTest {
                 System.out.println("Rozwiązanie: " + Arrays.toString(solution));
             }
 
-            double[] ax = crs.multiply(solution);
-            double resN = norm(vectorSubtract(ax, b));
+            double resN = crs.residual(b, solution, new double[n]);
             System.out.print(tr + ": sparsity: " + sparsity);
             System.out.print(", actual non-zeroes: " + crs.nNonZeroes() + ", actual sparsity: " + (double) crs.nNonZeroes() / n / n);
             System.out.println(" -> ||Residuum|| = " + resN);
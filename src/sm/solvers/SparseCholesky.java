@@ -0,0 +1,695 @@
+package sm.solvers;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import sm.CRS;
+import sm.NestedDissection;
+import sm.Parallel;
+import sm.SparseMatrix;
+import sm.SymmetricCRS;
+import sm.blas.Blas;
+
+/**
+ * Supernodal sparse Cholesky factorization P A P^T = L L^T of a symmetric
+ * positive definite matrix (direct solver).
+ *
+ * analyze: nested dissection ordering, elimination tree, postorder, column
+ * counts, fundamental supernodes merged by relaxed amalgamation, their row
+ * structures and all storage of the numeric phase. factorize:
+ * multifrontal, every supernode assembles a dense front from its columns of
+ * A and the update matrices of its children, factorizes its pivot columns
+ * with blocked dense kernels and passes the Schur complement to its parent;
+ * the supernodes of one level of the tree are independent and are
+ * factorized in parallel when Blas is, every task in its own front. solve:
+ * two triangular sweeps.
+ *
+ * Only the upper triangle of A is read (A is CRS or SymmetricCRS).
+ *
+ * @author jstar
+ */
+public class SparseCholesky implements DirectSolver {
+
+    private static final int PANEL = 32;
+
+    private int n;
+    private int[] perm;         // perm[new] = old
+    private Object key;         // pattern the analysis belongs to
+    // lower triangle of P A P^T by columns; value k comes from a[src[k]] of A
+    private int[] lp, li, src;
+    private int nSuper;
+    private int[] first;        // supernode s has columns first[s]..first[s+1]-1
+    private int[][] rows;       // row structure of supernode s (sorted, its own columns first)
+    private int[][] rel;        // positions of rows[s][k..m) in rows of the parent supernode
+    private int[] childPtr, child;
+    private int[] levelPtr, levelNodes;
+    private double[][] L;       // column-major m x k dense block of supernode s
+    private int[] updStart;     // update matrix of supernode s is at upd[updStart[s]] (u x u, u = m - k)
+    private double[] upd;
+    private int maxFront;
+    private double[][] fronts;  // workspace of every task
+    private boolean factored;   // L holds a complete factor
+
+    /**
+     * Ordering and symbolic factorization for the structure of A.
+     */
+    public void analyze(SparseMatrix A) {
+        int[] ia = rowPointers(A), ja = columnIndices(A);
+        n = A.nRows();
+        if (A.nCols() != n) {
+            throw new IllegalArgumentException("SparseCholesky: square matrix needed");
+        }
+        // symmetrized graph for the ordering
+        int[] gp = new int[n + 1];
+        for (int i = 0; i < n; i++) {
+            for (int k = ia[i]; k < ia[i + 1]; k++) {
+                if (ja[k] > i) {
+                    gp[i + 1]++;
+                    gp[ja[k] + 1]++;
+                }
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            gp[i + 1] += gp[i];
+        }
+        int[] gj = new int[gp[n]];
+        int[] next = Arrays.copyOf(gp, n);
+        for (int i = 0; i < n; i++) {
+            for (int k = ia[i]; k < ia[i + 1]; k++) {
+                if (ja[k] > i) {
+                    gj[next[i]++] = ja[k];
+                    gj[next[ja[k]]++] = i;
+                }
+            }
+        }
+        int[] p = NestedDissection.order(gp, gj);
+
+        // postorder of the elimination tree: same fill, supernodes become contiguous
+        permuteLower(ia, ja, p);
+        int[] parent = etree();
+        int[] post = postorder(parent);
+        perm = new int[n];
+        for (int k = 0; k < n; k++) {
+            perm[k] = p[post[k]];
+        }
+        permuteLower(ia, ja, perm);
+        parent = etree();
+        int[] count = columnCounts(parent);
+        supernodes(parent, count);
+        L = new double[nSuper][];
+        maxFront = 0;
+        for (int s = 0; s < nSuper; s++) {
+            int m = rows[s].length, k = first[s + 1] - first[s];
+            L[s] = new double[m * k];
+            maxFront = Math.max(maxFront, m);
+        }
+        upd = new double[placeUpdates()];
+        fronts = null;
+        factored = false;
+        key = keyOf(A);
+    }
+
+    /**
+     * Numeric factorization (analyze is called first if the structure of A
+     * is not the analysed one).
+     */
+    @Override
+    public void factorize(SparseMatrix A) {
+        if (keyOf(A) != key) {
+            analyze(A);
+        }
+        final double[] a = values(A);
+        factored = false;   // L is overwritten supernode by supernode
+        boolean parallel = Blas.isParallel();
+        int nt = parallel ? Parallel.getNoThreads() : 1;
+        if (fronts == null || fronts.length < nt) {
+            fronts = new double[nt][];
+        }
+        for (int l = 0; l < levelPtr.length - 1; l++) {
+            final int from = levelPtr[l], len = levelPtr[l + 1] - from;
+            final int nTasks = Math.min(nt, len);
+            // task c factorizes a contiguous chunk of the level in its own front
+            Parallel.forEach(nTasks, c -> {
+                if (fronts[c] == null) {
+                    fronts[c] = new double[maxFront * maxFront];
+                }
+                for (int t = (int) ((long) len * c / nTasks); t < (int) ((long) len * (c + 1) / nTasks); t++) {
+                    factorSupernode(levelNodes[from + t], a, fronts[c]);
+                }
+            });
+        }
+        factored = true;
+    }
+
+    @Override
+    public void solve(double[] b, double[] x) {
+        if (!factored) {
+            throw new IllegalStateException("SparseCholesky: no valid factorization");
+        }
+        double[] y = new double[n];
+        for (int k = 0; k < n; k++) {
+            y[k] = b[perm[k]];
+        }
+        for (int s = 0; s < nSuper; s++) {
+            int f = first[s], k = first[s + 1] - f;
+            int[] r = rows[s];
+            int m = r.length;
+            double[] ls = L[s];
+            for (int j = 0; j < k; j++) {
+                double yj = y[f + j] / ls[j * m + j];
+                y[f + j] = yj;
+                for (int i = j + 1; i < m; i++) {
+                    y[r[i]] -= ls[j * m + i] * yj;
+                }
+            }
+        }
+        for (int s = nSuper - 1; s >= 0; s--) {
+            int f = first[s], k = first[s + 1] - f;
+            int[] r = rows[s];
+            int m = r.length;
+            double[] ls = L[s];
+            for (int j = k - 1; j >= 0; j--) {
+                double t = y[f + j];
+                for (int i = j + 1; i < m; i++) {
+                    t -= ls[j * m + i] * y[r[i]];
+                }
+                y[f + j] = t / ls[j * m + j];
+            }
+        }
+        for (int k = 0; k < n; k++) {
+            x[perm[k]] = y[k];
+        }
+    }
+
+    public double[] solve(double[] b) {
+        double[] x = new double[n];
+        solve(b, x);
+        return x;
+    }
+
+    /**
+     * Direct solve, tol and maxIter are not used. Factorizes A on every call
+     * (the analysis is reused for the same structure); to reuse the factor
+     * call factorize once and solve(b, x) for every right hand side.
+     */
+    @Override
+    public double[] solve(SparseMatrix A, double[] b, double tol, int maxIter) {
+        factorize(A);
+        return solve(b);
+    }
+
+    public int getNoSupernodes() {
+        return nSuper;
+    }
+
+    /**
+     * @return number of entries of L (including the diagonal)
+     */
+    public long nNonZeroesL() {
+        long nnz = 0;
+        for (int s = 0; s < nSuper; s++) {
+            long k = first[s + 1] - first[s];
+            nnz += k * rows[s].length - k * (k - 1) / 2;
+        }
+        return nnz;
+    }
+
+    // upper triangle of A: CRS entries with column >= row, or the SymmetricCRS storage
+    private static int[] rowPointers(SparseMatrix A) {
+        return A instanceof SymmetricCRS ? ((SymmetricCRS) A).getRowPointers() : crs(A).getRowPointers();
+    }
+
+    private static int[] columnIndices(SparseMatrix A) {
+        return A instanceof SymmetricCRS ? ((SymmetricCRS) A).getColumnIndices() : crs(A).getColumnIndices();
+    }
+
+    private static double[] values(SparseMatrix A) {
+        return A instanceof SymmetricCRS ? ((SymmetricCRS) A).getValues() : crs(A).getValues();
+    }
+
+    private static Object keyOf(SparseMatrix A) {
+        return A instanceof SymmetricCRS ? ((SymmetricCRS) A).getRowPointers() : crs(A).getPattern();
+    }
+
+    private static CRS crs(SparseMatrix A) {
+        if (A instanceof CRS) {
+            return (CRS) A;
+        }
+        throw new IllegalArgumentException("SparseCholesky: CRS or SymmetricCRS needed, got " + A.getClass().getSimpleName());
+    }
+
+    // lp/li/src: lower triangle of P A P^T by columns, rows sorted
+    private void permuteLower(int[] ia, int[] ja, int[] p) {
+        int[] inv = new int[n];
+        for (int k = 0; k < n; k++) {
+            inv[p[k]] = k;
+        }
+        lp = new int[n + 1];
+        for (int i = 0; i < n; i++) {
+            for (int k = ia[i]; k < ia[i + 1]; k++) {
+                if (ja[k] >= i) {
+                    lp[Math.min(inv[i], inv[ja[k]]) + 1]++;
+                }
+            }
+        }
+        for (int j = 0; j < n; j++) {
+            lp[j + 1] += lp[j];
+        }
+        li = new int[lp[n]];
+        src = new int[lp[n]];
+        int[] next = Arrays.copyOf(lp, n);
+        for (int i = 0; i < n; i++) {
+            for (int k = ia[i]; k < ia[i + 1]; k++) {
+                if (ja[k] >= i) {
+                    int r = inv[i], c = inv[ja[k]];
+                    int col = Math.min(r, c);
+                    li[next[col]] = Math.max(r, c);
+                    src[next[col]++] = k;
+                }
+            }
+        }
+        for (int j = 0; j < n; j++) {   // insertion sort, columns are short
+            for (int q = lp[j] + 1; q < lp[j + 1]; q++) {
+                int r = li[q], s = src[q];
+                int t = q - 1;
+                while (t >= lp[j] && li[t] > r) {
+                    li[t + 1] = li[t];
+                    src[t + 1] = src[t];
+                    t--;
+                }
+                li[t + 1] = r;
+                src[t + 1] = s;
+            }
+        }
+    }
+
+    // Liu's algorithm with path compression; row k of L's pattern visits columns li of row k
+    private int[] etree() {
+        int[] parent = new int[n];
+        int[] ancestor = new int[n];
+        Arrays.fill(parent, -1);
+        Arrays.fill(ancestor, -1);
+        int[][] rowForm = rowForm();
+        int[] rp = rowForm[0], rc = rowForm[1];
+        for (int k = 0; k < n; k++) {
+            for (int q = rp[k]; q < rp[k + 1]; q++) {
+                int i = rc[q];
+                while (ancestor[i] != -1 && ancestor[i] != k) {
+                    int nx = ancestor[i];
+                    ancestor[i] = k;
+                    i = nx;
+                }
+                if (ancestor[i] == -1) {
+                    ancestor[i] = k;
+                    parent[i] = k;
+                }
+            }
+        }
+        return parent;
+    }
+
+    // strictly lower triangle by rows: columns c < k of row k
+    private int[][] rowForm() {
+        int[] rp = new int[n + 1];
+        for (int j = 0; j < n; j++) {
+            for (int q = lp[j]; q < lp[j + 1]; q++) {
+                if (li[q] != j) {
+                    rp[li[q] + 1]++;
+                }
+            }
+        }
+        for (int j = 0; j < n; j++) {
+            rp[j + 1] += rp[j];
+        }
+        int[] rc = new int[rp[n]];
+        int[] next = Arrays.copyOf(rp, n);
+        for (int j = 0; j < n; j++) {
+            for (int q = lp[j]; q < lp[j + 1]; q++) {
+                if (li[q] != j) {
+                    rc[next[li[q]]++] = j;
+                }
+            }
+        }
+        return new int[][]{rp, rc};
+    }
+
+    private int[] postorder(int[] parent) {
+        int[] head = new int[n], nextChild = new int[n];
+        Arrays.fill(head, -1);
+        for (int j = n - 1; j >= 0; j--) {   // children in increasing order
+            if (parent[j] >= 0) {
+                nextChild[j] = head[parent[j]];
+                head[parent[j]] = j;
+            }
+        }
+        int[] post = new int[n];
+        int[] stack = new int[n];
+        int k = 0;
+        for (int root = 0; root < n; root++) {
+            if (parent[root] >= 0) {
+                continue;
+            }
+            int top = 0;
+            stack[0] = root;
+            while (top >= 0) {
+                int v = stack[top];
+                int c = head[v];
+                if (c < 0) {
+                    post[k++] = v;
+                    top--;
+                } else {
+                    head[v] = nextChild[c];
+                    stack[++top] = c;
+                }
+            }
+        }
+        return post;
+    }
+
+    // number of entries in every column of L: row k of L is the row subtree of k
+    private int[] columnCounts(int[] parent) {
+        int[] count = new int[n];
+        int[] mark = new int[n];
+        Arrays.fill(mark, -1);
+        int[][] rowForm = rowForm();
+        int[] rp = rowForm[0], rc = rowForm[1];
+        for (int k = 0; k < n; k++) {
+            mark[k] = k;
+            count[k]++;
+            for (int q = rp[k]; q < rp[k + 1]; q++) {
+                for (int i = rc[q]; mark[i] != k; i = parent[i]) {
+                    count[i]++;
+                    mark[i] = k;
+                }
+            }
+        }
+        return count;
+    }
+
+    // fundamental supernodes, their row structures, the supernodal tree and its levels
+    private void supernodes(int[] parent, int[] count) {
+        int[] nChildren = new int[n];
+        for (int j = 0; j < n; j++) {
+            if (parent[j] >= 0) {
+                nChildren[parent[j]]++;
+            }
+        }
+        int[] f = new int[n + 1];
+        nSuper = 0;
+        for (int j = 0; j < n; j++) {
+            if (j == 0 || parent[j - 1] != j || count[j - 1] != count[j] + 1 || nChildren[j] != 1) {
+                f[nSuper++] = j;
+            }
+        }
+        f[nSuper] = n;
+        nSuper = relax(f, nSuper, parent, count);
+        first = Arrays.copyOf(f, nSuper + 1);
+        int[] superOf = new int[n];
+        for (int s = 0; s < nSuper; s++) {
+            for (int j = first[s]; j < first[s + 1]; j++) {
+                superOf[j] = s;
+            }
+        }
+        int[] sParent = new int[nSuper];
+        for (int s = 0; s < nSuper; s++) {
+            int last = first[s + 1] - 1;
+            sParent[s] = parent[last] < 0 ? -1 : superOf[parent[last]];
+        }
+        childPtr = new int[nSuper + 1];
+        for (int s = 0; s < nSuper; s++) {
+            if (sParent[s] >= 0) {
+                childPtr[sParent[s] + 1]++;
+            }
+        }
+        for (int s = 0; s < nSuper; s++) {
+            childPtr[s + 1] += childPtr[s];
+        }
+        child = new int[childPtr[nSuper]];
+        int[] next = Arrays.copyOf(childPtr, nSuper);
+        for (int s = 0; s < nSuper; s++) {
+            if (sParent[s] >= 0) {
+                child[next[sParent[s]]++] = s;
+            }
+        }
+
+        // row structures in postorder: own columns, rows of A below, rows of children below
+        rows = new int[nSuper][];
+        int[] mark = new int[n];
+        Arrays.fill(mark, -1);
+        int[] extra = new int[n];
+        for (int s = 0; s < nSuper; s++) {
+            int fs = first[s], ls = first[s + 1];
+            int ne = 0;
+            for (int j = fs; j < ls; j++) {
+                for (int q = lp[j]; q < lp[j + 1]; q++) {
+                    int r = li[q];
+                    if (r >= ls && mark[r] != s) {
+                        mark[r] = s;
+                        extra[ne++] = r;
+                    }
+                }
+            }
+            for (int c = childPtr[s]; c < childPtr[s + 1]; c++) {
+                for (int r : rows[child[c]]) {
+                    if (r >= ls && mark[r] != s) {
+                        mark[r] = s;
+                        extra[ne++] = r;
+                    }
+                }
+            }
+            Arrays.sort(extra, 0, ne);
+            int[] r = new int[ls - fs + ne];
+            for (int j = fs; j < ls; j++) {
+                r[j - fs] = j;
+            }
+            System.arraycopy(extra, 0, r, ls - fs, ne);
+            rows[s] = r;
+        }
+        rel = new int[nSuper][];
+        for (int s = 0; s < nSuper; s++) {
+            if (sParent[s] >= 0) {
+                int k = first[s + 1] - first[s];
+                int[] r = rows[s], pr = rows[sParent[s]];
+                int[] map = new int[r.length - k];
+                for (int i = k; i < r.length; i++) {
+                    map[i - k] = Arrays.binarySearch(pr, r[i]);
+                }
+                rel[s] = map;
+            }
+        }
+
+        // levels of the supernodal tree: leaves first, a node after all its children
+        int[] height = new int[nSuper];
+        int nLevels = 1;
+        for (int s = 0; s < nSuper; s++) {
+            if (sParent[s] >= 0) {
+                height[sParent[s]] = Math.max(height[sParent[s]], height[s] + 1);
+            }
+            nLevels = Math.max(nLevels, height[s] + 1);
+        }
+        levelPtr = new int[nLevels + 1];
+        for (int s = 0; s < nSuper; s++) {
+            levelPtr[height[s] + 1]++;
+        }
+        for (int l = 0; l < nLevels; l++) {
+            levelPtr[l + 1] += levelPtr[l];
+        }
+        levelNodes = new int[nSuper];
+        int[] pos = Arrays.copyOf(levelPtr, nLevels);
+        for (int s = 0; s < nSuper; s++) {
+            levelNodes[pos[height[s]]++] = s;
+        }
+    }
+
+    /**
+     * An update matrix lives from the level of its supernode to the level of
+     * the parent; slots of consumed updates are reused (best fit).
+     *
+     * @return size of the update storage
+     */
+    private int placeUpdates() {
+        updStart = new int[nSuper];
+        TreeMap<Integer, Integer> free = new TreeMap<>();   // offset -> size
+        TreeSet<Long> bySize = new TreeSet<>();             // size << 32 | offset
+        int top = 0;
+        for (int l = 0; l < levelPtr.length - 1; l++) {
+            for (int t = levelPtr[l]; t < levelPtr[l + 1]; t++) {
+                int s = levelNodes[t];
+                int u = updateSize(s);
+                if (u == 0) {
+                    continue;
+                }
+                Long best = bySize.ceiling((long) u << 32);
+                if (best != null) {
+                    int off = (int) (best & 0xffffffffL), size = (int) (best >>> 32);
+                    updStart[s] = off;
+                    free.remove(off);
+                    bySize.remove(best);
+                    if (size > u) {
+                        free.put(off + u, size - u);
+                        bySize.add((long) (size - u) << 32 | (off + u));
+                    }
+                } else {
+                    Map.Entry<Integer, Integer> last = free.lastEntry();
+                    if (last != null && last.getKey() + last.getValue() == top) {
+                        top = last.getKey();
+                        free.remove(top);
+                        bySize.remove((long) last.getValue() << 32 | top);
+                    }
+                    updStart[s] = top;
+                    top += u;
+                }
+            }
+            // children are consumed at this level; their slots are free for the next one
+            for (int t = levelPtr[l]; t < levelPtr[l + 1]; t++) {
+                int s = levelNodes[t];
+                for (int c = childPtr[s]; c < childPtr[s + 1]; c++) {
+                    int ch = child[c];
+                    int off = updStart[ch], u = updateSize(ch);
+                    if (u == 0) {
+                        continue;
+                    }
+                    Map.Entry<Integer, Integer> before = free.floorEntry(off);
+                    if (before != null && before.getKey() + before.getValue() == off) {
+                        free.remove(before.getKey());
+                        bySize.remove((long) before.getValue() << 32 | before.getKey());
+                        off = before.getKey();
+                        u += before.getValue();
+                    }
+                    Integer after = free.remove(off + u);
+                    if (after != null) {
+                        bySize.remove((long) after << 32 | (off + u));
+                        u += after;
+                    }
+                    free.put(off, u);
+                    bySize.add((long) u << 32 | off);
+                }
+            }
+        }
+        return top;
+    }
+
+    private int updateSize(int s) {
+        int u = rows[s].length - (first[s + 1] - first[s]);
+        return u * u;
+    }
+
+    /**
+     * Relaxed amalgamation: a supernode absorbs the preceding one (then its
+     * child in the postordered tree) while the explicit zeros it adds to the
+     * dense blocks stay few - small supernodes are merged freely, larger ones
+     * only if their zero fraction is small. f is rewritten in place.
+     *
+     * @return new number of supernodes
+     */
+    private static int relax(int[] f, int ns, int[] parent, int[] count) {
+        int out = 0;
+        long gk = 0, gm = 0, gz = 0;   // columns, rows and explicit zeros of the current group
+        for (int s = 0; s < ns; s++) {
+            int fs = f[s], ls = f[s + 1];
+            long k = ls - fs, m = count[fs];
+            if (s > 0 && parent[fs - 1] >= fs && parent[fs - 1] < ls) {
+                long k2 = gk + k, m2 = gk + m;
+                long z2 = gz + dense(k2, m2) - dense(gk, gm) - dense(k, m);
+                double frac = (double) z2 / dense(k2, m2);
+                if (k2 <= 4 || (k2 <= 16 && frac < 0.8) || (k2 <= 48 && frac < 0.1) || frac < 0.05) {
+                    gk = k2;
+                    gm = m2;
+                    gz = z2;
+                    continue;
+                }
+            }
+            f[out++] = fs;
+            gk = k;
+            gm = m;
+            gz = 0;
+        }
+        f[out] = f[ns];
+        return out;
+    }
+
+    // entries of the lower trapezoid of a supernode with k columns and m rows
+    private static long dense(long k, long m) {
+        return k * m - k * (k - 1) / 2;
+    }
+
+    private void factorSupernode(int s, double[] a, double[] front) {
+        int fs = first[s], k = first[s + 1] - fs;
+        int[] r = rows[s];
+        int m = r.length;
+        Arrays.fill(front, 0, m * m, 0.0);
+        for (int j = fs; j < fs + k; j++) {
+            int col = (j - fs) * m;
+            for (int q = lp[j]; q < lp[j + 1]; q++) {
+                int i = li[q];
+                int pos = i < fs + k ? i - fs : Arrays.binarySearch(r, k, m, i);
+                front[col + pos] += a[src[q]];
+            }
+        }
+        for (int c = childPtr[s]; c < childPtr[s + 1]; c++) {
+            int ch = child[c];
+            extendAdd(front, m, upd, updStart[ch], rel[ch]);
+        }
+        partialCholesky(front, m, k, s);
+        System.arraycopy(front, 0, L[s], 0, m * k);
+        int u = m - k;
+        for (int j = 0; j < u; j++) {
+            System.arraycopy(front, (k + j) * m + k, upd, updStart[s] + j * u, u);
+        }
+    }
+
+    // lower triangle of the child's update matrix added to the front
+    private static void extendAdd(double[] front, int m, double[] upd, int off, int[] map) {
+        int u = map.length;
+        for (int j = 0; j < u; j++) {
+            int col = map[j] * m;
+            int uj = off + j * u;
+            for (int i = j; i < u; i++) {
+                front[col + map[i]] += upd[uj + i];
+            }
+        }
+    }
+
+    // factorizes the first k columns of the m x m front (lower, column-major) and updates the rest
+    private void partialCholesky(double[] f, int m, int k, int s) {
+        for (int p0 = 0; p0 < k; p0 += PANEL) {
+            int p1 = Math.min(k, p0 + PANEL);
+            for (int j = p0; j < p1; j++) {
+                int cj = j * m;
+                double d = f[cj + j];
+                if (!(d > 0.0)) {
+                    throw new IllegalArgumentException("SparseCholesky: matrix is not positive definite (pivot " + d + " in column " + (first[s] + j) + ")");
+                }
+                d = Math.sqrt(d);
+                f[cj + j] = d;
+                double inv = 1.0 / d;
+                for (int i = j + 1; i < m; i++) {
+                    f[cj + i] *= inv;
+                }
+                for (int jj = j + 1; jj < p1; jj++) {
+                    double l = f[cj + jj];
+                    if (l != 0.0) {
+                        int cjj = jj * m;
+                        for (int i = jj; i < m; i++) {
+                            f[cjj + i] -= l * f[cj + i];
+                        }
+                    }
+                }
+            }
+            // rank (p1-p0) update of the trailing columns, one column at a time
+            for (int jj = p1; jj < m; jj++) {
+                int cjj = jj * m;
+                for (int j = p0; j < p1; j++) {
+                    int cj = j * m;
+                    double l = f[cj + jj];
+                    if (l != 0.0) {
+                        for (int i = jj; i < m; i++) {
+                            f[cjj + i] -= l * f[cj + i];
+                        }
+                    }
+                }
+            }
+        }
+    }
+}
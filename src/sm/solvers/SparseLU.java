@@ -0,0 +1,409 @@
+package sm.solvers;
+
+import java.util.Arrays;
+import sm.CRS;
+import sm.NestedDissection;
+import sm.SELL;
+import sm.SparseMatrix;
+import sm.SymmetricCRS;
+
+/**
+ * Sparse LU factorization P A Q = L U of a general square matrix (direct
+ * solver), left-looking after Gilbert and Peierls: column k of L and U comes
+ * from a sparse triangular solve with the columns already computed, its
+ * pattern found by a depth first search in the graph of L.
+ *
+ * Columns are ordered by nested dissection of the structure of A + A^T.
+ * Rows are chosen by threshold partial pivoting: the diagonal entry is kept
+ * if it is at least threshold times the largest candidate in its column,
+ * otherwise the largest candidate is the pivot.
+ *
+ * refactorize reuses the ordering, the pivot sequence and the patterns of L
+ * and U of the last factorization when only values of A change (a pivot
+ * which gets too small makes a full factorization instead). solve(A, b,
+ * ...) refactorizes on every call; to reuse the factor call factorize once
+ * and solve(b, x) for every right hand side.
+ *
+ * CRS and SymmetricCRS are analysed once per structure, SELL once per
+ * matrix; HashSM, whose structure may grow, on every factorize.
+ *
+ * @author jstar
+ */
+public class SparseLU implements DirectSolver {
+
+    public static final double DEFAULT_THRESHOLD = 0.1;
+
+    private final double threshold;
+    private int n;
+    private Object key;           // structure the analysis belongs to, see keyOf
+    private int[] q;              // column ordering: column k of A Q is column q[k] of A
+    // A by columns; value p comes from a[src[p]] of the CRS
+    private int[] cp, ci, src;
+    private int[] pinv;           // row i of A is row pinv[i] of P A
+    private int[] lp, li, up, ui; // L (unit diagonal first) and U (diagonal last) by columns
+    private double[] lx, ux;
+
+    public SparseLU() {
+        this(DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * @param threshold in (0,1], 1 gives plain partial pivoting
+     */
+    public SparseLU(double threshold) {
+        if (!(threshold > 0.0 && threshold <= 1.0)) {
+            throw new IllegalArgumentException("SparseLU: threshold must be in (0,1], got " + threshold);
+        }
+        this.threshold = threshold;
+    }
+
+    /**
+     * Column ordering and the column form of A.
+     */
+    public void analyze(SparseMatrix A) {
+        CRS C = IncompleteFactor.crsOf(A, "SparseLU");
+        n = C.nRows();
+        if (C.nCols() != n) {
+            throw new IllegalArgumentException("SparseLU: square matrix needed");
+        }
+        int[] ia = C.getRowPointers(), ja = C.getColumnIndices();
+        cp = new int[n + 1];
+        for (int k = 0; k < ia[n]; k++) {
+            cp[ja[k] + 1]++;
+        }
+        for (int j = 0; j < n; j++) {
+            cp[j + 1] += cp[j];
+        }
+        ci = new int[ia[n]];
+        src = new int[ia[n]];
+        int[] next = Arrays.copyOf(cp, n);
+        for (int i = 0; i < n; i++) {
+            for (int k = ia[i]; k < ia[i + 1]; k++) {
+                ci[next[ja[k]]] = i;
+                src[next[ja[k]]++] = k;
+            }
+        }
+        // graph of A + A^T (repeated edges do not matter)
+        int[] gp = new int[n + 1];
+        for (int i = 0; i < n; i++) {
+            for (int k = ia[i]; k < ia[i + 1]; k++) {
+                if (ja[k] != i) {
+                    gp[i + 1]++;
+                    gp[ja[k] + 1]++;
+                }
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            gp[i + 1] += gp[i];
+        }
+        int[] gj = new int[gp[n]];
+        next = Arrays.copyOf(gp, n);
+        for (int i = 0; i < n; i++) {
+            for (int k = ia[i]; k < ia[i + 1]; k++) {
+                if (ja[k] != i) {
+                    gj[next[i]++] = ja[k];
+                    gj[next[ja[k]]++] = i;
+                }
+            }
+        }
+        q = NestedDissection.order(gp, gj);
+        key = keyOf(A);
+        pinv = null;
+    }
+
+    /**
+     * Numeric factorization with pivot search (analyze is called first if
+     * the pattern of A is not the analysed one).
+     */
+    @Override
+    public void factorize(SparseMatrix A) {
+        Object structure = keyOf(A);
+        CRS C = IncompleteFactor.crsOf(A, "SparseLU");
+        if (structure == null || structure != key) {
+            analyze(C);
+            key = structure;
+        }
+        pinv = null;   // no valid factor until the loop below completes
+        double[] a = C.getValues();
+        int[] p = new int[n];
+        Arrays.fill(p, -1);
+        lp = new int[n + 1];
+        up = new int[n + 1];
+        int cap = 4 * ci.length + n;
+        li = new int[cap];
+        lx = new double[cap];
+        ui = new int[cap];
+        ux = new double[cap];
+        double[] x = new double[n];
+        int[] xi = new int[n], stack = new int[n], pstack = new int[n], mark = new int[n];
+        Arrays.fill(mark, -1);
+        int lnz = 0, unz = 0;
+        for (int k = 0; k < n; k++) {
+            if (lnz + n > li.length) {
+                li = Arrays.copyOf(li, 2 * li.length + n);
+                lx = Arrays.copyOf(lx, li.length);
+            }
+            if (unz + n > ui.length) {
+                ui = Arrays.copyOf(ui, 2 * ui.length + n);
+                ux = Arrays.copyOf(ux, ui.length);
+            }
+            lp[k] = lnz;
+            up[k] = unz;
+            int col = q[k];
+            int top = reach(col, k, p, xi, stack, pstack, mark);
+            for (int t = cp[col]; t < cp[col + 1]; t++) {
+                x[ci[t]] += a[src[t]];
+            }
+            // x = L \ A(:,col), rows in topological order
+            for (int t = top; t < n; t++) {
+                int j = xi[t], J = p[j];
+                if (J >= 0) {
+                    double xj = x[j];
+                    for (int s = lp[J] + 1; s < lp[J + 1]; s++) {
+                        x[li[s]] -= lx[s] * xj;
+                    }
+                }
+            }
+            int ipiv = -1;
+            double amax = 0.0;
+            for (int t = top; t < n; t++) {
+                int i = xi[t];
+                if (p[i] < 0) {
+                    if (Math.abs(x[i]) > amax) {
+                        amax = Math.abs(x[i]);
+                        ipiv = i;
+                    }
+                } else {
+                    ui[unz] = p[i];
+                    ux[unz++] = x[i];
+                }
+            }
+            if (ipiv < 0) {
+                throw new IllegalArgumentException("SparseLU: matrix is singular (column " + col + ")");
+            }
+            if (p[col] < 0 && Math.abs(x[col]) >= threshold * amax) {
+                ipiv = col;
+            }
+            double pivot = x[ipiv];
+            ui[unz] = k;
+            ux[unz++] = pivot;
+            p[ipiv] = k;
+            li[lnz] = ipiv;
+            lx[lnz++] = 1.0;
+            for (int t = top; t < n; t++) {
+                int i = xi[t];
+                if (p[i] < 0) {
+                    li[lnz] = i;
+                    lx[lnz++] = x[i] / pivot;
+                }
+                x[i] = 0.0;
+            }
+        }
+        lp[n] = lnz;
+        up[n] = unz;
+        for (int s = 0; s < lnz; s++) {
+            li[s] = p[li[s]];
+        }
+        li = Arrays.copyOf(li, lnz);
+        lx = Arrays.copyOf(lx, lnz);
+        sortU(unz);
+        pinv = p;
+    }
+
+    /**
+     * Numeric factorization with the pivots and patterns of the last one; A
+     * must have the analysed structure, otherwise (or when a pivot falls
+     * below threshold) factorize is called.
+     */
+    @Override
+    public void refactorize(SparseMatrix A) {
+        Object structure = keyOf(A);
+        if (structure == null || structure != key || pinv == null) {
+            factorize(A);
+            return;
+        }
+        CRS C = IncompleteFactor.crsOf(A, "SparseLU");
+        double[] a = C.getValues();
+        int[] p = pinv;
+        pinv = null;   // the factor is overwritten in place
+        double[] x = new double[n];   // indexed by rows of P A
+        for (int k = 0; k < n; k++) {
+            int col = q[k];
+            for (int t = cp[col]; t < cp[col + 1]; t++) {
+                x[p[ci[t]]] += a[src[t]];
+            }
+            int diag = up[k + 1] - 1;
+            for (int t = up[k]; t < diag; t++) {   // rows of U ascending: topological
+                int J = ui[t];
+                double xj = x[J];
+                ux[t] = xj;
+                x[J] = 0.0;
+                for (int s = lp[J] + 1; s < lp[J + 1]; s++) {
+                    x[li[s]] -= lx[s] * xj;
+                }
+            }
+            double pivot = x[k];
+            x[k] = 0.0;
+            double amax = 0.0;
+            for (int s = lp[k] + 1; s < lp[k + 1]; s++) {
+                lx[s] = x[li[s]];
+                x[li[s]] = 0.0;
+                amax = Math.max(amax, Math.abs(lx[s]));
+            }
+            if (pivot == 0.0 || Math.abs(pivot) < threshold * amax) {
+                factorize(A);
+                return;
+            }
+            ux[diag] = pivot;
+            for (int s = lp[k] + 1; s < lp[k + 1]; s++) {
+                lx[s] /= pivot;
+            }
+        }
+        pinv = p;
+    }
+
+    @Override
+    public void solve(double[] b, double[] x) {
+        if (pinv == null) {
+            throw new IllegalStateException("SparseLU: no valid factorization");
+        }
+        double[] y = new double[n];
+        for (int i = 0; i < n; i++) {
+            y[pinv[i]] = b[i];
+        }
+        for (int j = 0; j < n; j++) {
+            double yj = y[j];
+            for (int s = lp[j] + 1; s < lp[j + 1]; s++) {
+                y[li[s]] -= lx[s] * yj;
+            }
+        }
+        for (int j = n - 1; j >= 0; j--) {
+            int diag = up[j + 1] - 1;
+            double yj = y[j] / ux[diag];
+            y[j] = yj;
+            for (int s = up[j]; s < diag; s++) {
+                y[ui[s]] -= ux[s] * yj;
+            }
+        }
+        for (int k = 0; k < n; k++) {
+            x[q[k]] = y[k];
+        }
+    }
+
+    public double[] solve(double[] b) {
+        double[] x = new double[n];
+        solve(b, x);
+        return x;
+    }
+
+    /**
+     * Direct solve, tol and maxIter are not used.
+     */
+    @Override
+    public double[] solve(SparseMatrix A, double[] b, double tol, int maxIter) {
+        refactorize(A);
+        return solve(b);
+    }
+
+    public double getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * @return number of entries of L (with its unit diagonal)
+     */
+    public int nNonZeroesL() {
+        return lp == null ? 0 : lp[n];
+    }
+
+    /**
+     * @return number of entries of U
+     */
+    public int nNonZeroesU() {
+        return up == null ? 0 : up[n];
+    }
+
+    // identity of the structure of A: the CRS pattern, the row pointers of a SymmetricCRS (its CRS form
+    // follows them), a SELL itself (its structure is fixed); null for HashSM
+    private static Object keyOf(SparseMatrix A) {
+        if (A instanceof CRS) {
+            return ((CRS) A).getPattern();
+        } else if (A instanceof SymmetricCRS) {
+            return ((SymmetricCRS) A).getRowPointers();
+        } else if (A instanceof SELL) {
+            return A;
+        }
+        return null;
+    }
+
+    /**
+     * Rows of A reached from column col through the graph of L (columns
+     * 0..k-1): xi[top..n) in topological order.
+     */
+    private int reach(int col, int k, int[] p, int[] xi, int[] stack, int[] pstack, int[] mark) {
+        int top = n;
+        for (int t = cp[col]; t < cp[col + 1]; t++) {
+            int r = ci[t];
+            if (mark[r] == k) {
+                continue;
+            }
+            int head = 0;
+            stack[0] = r;
+            while (head >= 0) {
+                int j = stack[head];
+                int J = p[j];
+                if (mark[j] != k) {
+                    mark[j] = k;
+                    pstack[head] = J < 0 ? 0 : lp[J] + 1;
+                }
+                int end = J < 0 ? 0 : lp[J + 1];
+                boolean done = true;
+                for (int s = pstack[head]; s < end; s++) {
+                    int i = li[s];
+                    if (mark[i] != k) {
+                        pstack[head] = s + 1;
+                        stack[++head] = i;
+                        done = false;
+                        break;
+                    }
+                }
+                if (done) {
+                    head--;
+                    xi[--top] = j;
+                }
+            }
+        }
+        return top;
+    }
+
+    // sorts rows of every column of U (transposing twice), trims the arrays
+    private void sortU(int nz) {
+        int[] rp = new int[n + 1];
+        for (int s = 0; s < nz; s++) {
+            rp[ui[s] + 1]++;
+        }
+        for (int i = 0; i < n; i++) {
+            rp[i + 1] += rp[i];
+        }
+        int[] rc = new int[nz];
+        double[] rv = new double[nz];
+        int[] next = Arrays.copyOf(rp, n);
+        for (int j = 0; j < n; j++) {
+            for (int s = up[j]; s < up[j + 1]; s++) {
+                rc[next[ui[s]]] = j;
+                rv[next[ui[s]]++] = ux[s];
+            }
+        }
+        int[] sorted = new int[nz];
+        double[] sortedVal = new double[nz];
+        next = Arrays.copyOf(up, n);
+        for (int i = 0; i < n; i++) {
+            for (int s = rp[i]; s < rp[i + 1]; s++) {
+                sorted[next[rc[s]]] = i;
+                sortedVal[next[rc[s]]++] = rv[s];
+            }
+        }
+        ui = sorted;
+        ux = sortedVal;
+    }
+}